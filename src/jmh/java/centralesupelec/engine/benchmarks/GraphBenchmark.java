@@ -0,0 +1,61 @@
+package centralesupelec.engine.benchmarks;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import centralesupelec.engine.argumentation.Argument;
+import centralesupelec.engine.state_machine.actions.ArgueAction;
+import centralesupelec.engine.state_machine.actions.ProposeAction;
+
+/** Measures the negotiation graph operations and the action generators evaluated at each transition of an engineer.
+ * Run with the gc profiler (enabled in build.gradle) to read the allocations per operation in gc.alloc.rate.norm.
+ *
+ * @author Thomas Lamson
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GraphBenchmark {
+    
+    @Benchmark
+    public Object cloneGraph(NegotiationState state) {
+        return state.graph.clone();
+    }
+    
+    @Benchmark
+    public boolean isItemWinning(NegotiationState state) {
+        return state.graph.isItemWinning(state.probedItem);
+    }
+    
+    /** Argument generation answered by the memo, as when the same branch is evaluated again */
+    @Benchmark
+    public Object generateBestArgumentForItem(NegotiationState state) {
+        return state.graph.generateBestArgumentForItem(state.probedItem, state.agent);
+    }
+    
+    /** Argument generation for a branch that was never evaluated: the memo of the item is forgotten first */
+    @Benchmark
+    public Object generateBestArgumentForItemUncached(NegotiationState state) {
+        state.agent.getArgumentMemo().removeItem(state.probedItem);
+        return state.graph.generateBestArgumentForItem(state.probedItem, state.agent);
+    }
+    
+    @Benchmark
+    public Object generateArgueAction(NegotiationState state) {
+        return ArgueAction.generateActionWithGraph(state.agent, state.graph, Optional.empty());
+    }
+    
+    @Benchmark
+    public Object generateProposeAction(NegotiationState state) {
+        return ProposeAction.generateAction(state.agent);
+    }
+    
+    @Benchmark
+    public Object parseArgument(NegotiationState state) {
+        return Argument.parseArgument(state.argumentMessage, state.agent);
+    }
+}
@@ -0,0 +1,118 @@
+package centralesupelec.engine.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import centralesupelec.engine.agents.EngineerAgent;
+import centralesupelec.engine.argumentation.Argument;
+import centralesupelec.engine.argumentation.Item;
+import centralesupelec.engine.argumentation.graph.NegotiationGraph;
+
+/** A negotiation in progress between two engineers, shared by the decision benchmarks.
+ * Every other item of the catalog was proposed, alternately by each engineer, and each proposal branch was argued
+ * up to the graph depth by the two engineers in turn, as far as their preferences allow it. Preferences are seeded,
+ * so that every trial measures the same negotiation.
+ *
+ * @author Thomas Lamson
+ */
+@State(Scope.Benchmark)
+public class NegotiationState {
+    /** Number of items in the catalog */
+    @Param({"10", "1000"})
+    public int catalogSize;
+    
+    /** Number of criteria the engineers grade items on */
+    @Param({"3", "6"})
+    public int criteriaCount;
+    
+    /** Maximal number of arguments in each proposal branch */
+    @Param({"0", "3"})
+    public int graphDepth;
+    
+    /** The engineer taking decisions, and the other one */
+    public EngineerAgent agent;
+    public EngineerAgent opponent;
+    
+    public ArrayList<Item> items;
+    
+    /** The negotiation graph of the agent */
+    public NegotiationGraph graph;
+    
+    /** The proposed item nearest to the middle of the catalog whose branch was argued up to the graph depth,
+     * on which single-item operations are measured */
+    public Item probedItem;
+    
+    /** Argument message about the probed item, as exchanged by the engineers: the last argument of its branch,
+     * or the one opening it if the branch is empty */
+    public String argumentMessage;
+    
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < catalogSize; i++) {
+            if (i > 0) {
+                builder.append('|');
+            }
+            builder.append("Item").append(i).append(";Description of item ").append(i);
+        }
+        items = Item.parseItems(builder.toString());
+        
+        agent = new EngineerAgent();
+        agent.getPreferences().randomize(items, new Random(1), criteriaCount);
+        agent.setItems(items);
+        opponent = new EngineerAgent();
+        opponent.getPreferences().randomize(items, new Random(2), criteriaCount);
+        opponent.setItems(items);
+        
+        graph = agent.getGraph();
+        int[] branchDepths = new int[catalogSize];
+        Argument[] lastArguments = new Argument[catalogSize];
+        for (int i = 0; i < catalogSize; i += 2) {
+            Item item = items.get(i);
+            if (i % 4 == 0) {
+                graph.receiveProposal(item);
+            } else {
+                graph.initiateProposal(item);
+            }
+            
+            // Branches are opened by an engineer supporting the item, then each engineer attacks the other one's argument
+            EngineerAgent arguer = opponent.canAccept(item) ? opponent : agent;
+            for (int depth = 0; depth < graphDepth; depth++) {
+                Optional<Argument> argument = graph.generateBestArgumentForItem(item, arguer);
+                if (!argument.isPresent() || !graph.canAddArgument(argument.get())) {
+                    break;
+                }
+                graph.addArgument(argument.get());
+                branchDepths[i]++;
+                lastArguments[i] = argument.get();
+                arguer = arguer == agent ? opponent : agent;
+            }
+            if (lastArguments[i] == null) {
+                lastArguments[i] = graph.generateBestArgumentForItem(item, arguer).orElse(null);
+            }
+        }
+        agent.getArgumentMemo().clear();
+        
+        // Most branches stop early, as neither engineer has an argument left, so the probed branch is searched from the middle of the catalog
+        int probedIndex = -1;
+        int middle = catalogSize / 4 * 2;
+        for (int i = 0; i < catalogSize; i += 2) {
+            if (branchDepths[i] == graphDepth && lastArguments[i] != null
+                    && (probedIndex < 0 || Math.abs(i - middle) < Math.abs(probedIndex - middle))) {
+                probedIndex = i;
+            }
+        }
+        if (probedIndex < 0) {
+            throw new IllegalStateException("No proposal branch reaches depth " + graphDepth + " with " + catalogSize + " items and "
+                                            + criteriaCount + " criteria.");
+        }
+        probedItem = items.get(probedIndex);
+        argumentMessage = lastArguments[probedIndex].toString();
+    }
+}
@@ -0,0 +1,84 @@
+package centralesupelec.engine.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import centralesupelec.engine.agents.EngineerAgent;
+import centralesupelec.engine.argumentation.Argument;
+import centralesupelec.engine.argumentation.Item;
+
+/** Measures the text parsing of received messages. Run with the gc profiler (enabled in build.gradle)
+ * to read the allocations per parsed message in gc.alloc.rate.norm.
+ *
+ * @author Thomas Lamson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParserBenchmark {
+    /** Number of items in the catalog */
+    @Param({"10", "1000"})
+    public int catalogSize;
+    
+    private EngineerAgent agent;
+    
+    /** Catalog message, as sent by the manager */
+    private String catalog;
+    
+    /** Name of the last item of the catalog, the worst case of a linear search */
+    private String proposal;
+    
+    /** Argument messages, as sent by an engineer */
+    private String supportArgument;
+    private String attackArgument;
+    
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < catalogSize; i++) {
+            if (i > 0) {
+                builder.append('|');
+            }
+            builder.append("Item").append(i).append(";Description of item ").append(i);
+        }
+        catalog = builder.toString();
+        
+        ArrayList<Item> items = Item.parseItems(catalog);
+        agent = new EngineerAgent();
+        agent.getPreferences().randomize(items);
+        agent.setItems(items);
+        
+        proposal = "Item" + (catalogSize - 1);
+        supportArgument = proposal + " <= Cost = VERY_GOOD";
+        attackArgument = "not " + proposal + " <= Noise = BAD, Noise > Cost";
+    }
+    
+    @Benchmark
+    public Object parseProposal() {
+        return agent.getItemByName(proposal);
+    }
+    
+    @Benchmark
+    public Object parseSupportArgument() {
+        return Argument.parseArgument(supportArgument, agent);
+    }
+    
+    @Benchmark
+    public Object parseAttackArgument() {
+        return Argument.parseArgument(attackArgument, agent);
+    }
+    
+    @Benchmark
+    public Object parseCatalog() {
+        return Item.parseItems(catalog);
+    }
+}
@@ -0,0 +1,40 @@
+package centralesupelec.engine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/** Measures the preference queries behind every decision of an engineer. Run with the gc profiler (enabled in build.gradle)
+ * to read the allocations per query in gc.alloc.rate.norm.
+ *
+ * @author Thomas Lamson
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PreferencesBenchmark {
+    
+    @Benchmark
+    public int computeScore(NegotiationState state) {
+        return state.agent.getPreferences().computeScore(state.probedItem);
+    }
+    
+    /** Acceptance answered by the agent's acceptance index, as during a negotiation */
+    @Benchmark
+    public boolean canAccept(NegotiationState state) {
+        return state.agent.canAccept(state.probedItem);
+    }
+    
+    /** Acceptance computed from the preferences alone, over the whole catalog */
+    @Benchmark
+    public boolean canAcceptFromPreferences(NegotiationState state) {
+        return state.agent.getPreferences().canAccept(state.probedItem, state.items);
+    }
+    
+    @Benchmark
+    public Object findBest(NegotiationState state) {
+        return state.agent.getPreferences().findBest(state.items);
+    }
+}
@@ -2,6 +2,11 @@ package centralesupelec.engine;
 
 import centralesupelec.engine.agents.EngineerAgent;
 import centralesupelec.engine.agents.ManagerAgent;
+import centralesupelec.engine.agents.MessageCodec;
+import centralesupelec.engine.argumentation.Item;
+import centralesupelec.engine.argumentation.Preferences;
+import centralesupelec.engine.simulation.Simulation;
+import centralesupelec.engine.state_machine.actions.ParallelEvaluation;
 
 import jade.core.Profile;
 import jade.core.ProfileImpl;
@@ -11,6 +16,8 @@ import jade.wrapper.ControllerException;
 import jade.wrapper.StaleProxyException;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Optional;
 
 /**
  * This class implements the main class of the practical work 3 project: <code>Engine</code>.
@@ -19,39 +26,108 @@ import java.io.Serializable;
  * @version 1.0
  */
 public class Launcher implements Serializable {
-
+    
     /**
      * The serial id of the class.
      */
     private static final long serialVersionUID = 1L;
-
+    
     /**
      * The main method.
-     * @param args the arguments of the program.
+     * @param args the arguments of the program: an optional protocol file path for the engineer agents,
+     *             an optional "--binary" flag enabling binary message contents between agents that support it,
+     *             an optional "--engineers N" option setting the number of engineer agents (2 by default),
+     *             an optional "--managers M" option setting the number of managers running concurrent negotiations with the same engineers (1 by default),
+     *             an optional "--seed S" option making the random choices of the agents reproducible,
+     *             an optional "--parallel" flag evaluating the candidate arguments of the engineers in parallel (see ParallelEvaluation),
+     *             an optional "--parallel-min N" option setting the minimal number of candidates evaluated in parallel (8 by default),
+     *             and an optional "--headless" flag running the negotiation without JADE (see Simulation), with the same transcript for the same seed.
      */
     public static void main(String[] args) throws ControllerException {
         
+        // Parsing options, the remaining argument being the protocol file path
+        String protocolPath = null;
+        int engineerCount = ManagerAgent.DEFAULT_ENGINEER_COUNT;
+        int managerCount = 1;
+        Long seed = null;
+        boolean headless = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--binary")) {
+                MessageCodec.setBinaryEnabled(true);
+            } else if (args[i].equals("--engineers") && i + 1 < args.length) {
+                engineerCount = Math.max(2, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--managers") && i + 1 < args.length) {
+                managerCount = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--parallel")) {
+                ParallelEvaluation.setEnabled(true);
+            } else if (args[i].equals("--parallel-min") && i + 1 < args.length) {
+                ParallelEvaluation.setMinCandidates(Math.max(2, Integer.parseInt(args[++i])));
+            } else if (args[i].equals("--headless")) {
+                headless = true;
+            } else {
+                protocolPath = args[i];
+            }
+        }
+        
+        // Data files
+        String itemsPath = "data/items.txt";
+        String[] preferencesPaths = {"data/preferences1.txt", "data/preferences2.txt"};
+        
+        if (headless) {
+            runHeadless(itemsPath, preferencesPaths, protocolPath, engineerCount, seed != null ? seed : System.nanoTime());
+            return;
+        }
+        
         // Initializing Jade
         Runtime rt = Runtime.instance();
         rt.setCloseVM(true);
         Profile pMain = new ProfileImpl("localhost", 8889, null);
         AgentContainer mc = rt.createMainContainer(pMain);
         
-        // Data files
-        String itemsPath = "data/items.txt";
-        String preferencesPath1 = "data/preferences1.txt";
-        String preferencesPath2 = "data/preferences2.txt";
-        
         try {
-            // Creating and starting two engineer agents with preferences
-            mc.createNewAgent("engineer1", EngineerAgent.class.getName(), new Object[] {itemsPath, preferencesPath1}).start();
-            mc.createNewAgent("engineer2", EngineerAgent.class.getName(), new Object[] {itemsPath, preferencesPath2}).start();
+            // Creating and starting the engineer agents, with preferences files for the first two and random preferences for the others
+            // Engineer agents follow the default protocol, or the protocol file given as argument
+            // With a seed, engineerN randomizes its preferences from seed + N (see Simulation)
+            for (int i = 0; i < engineerCount; i++) {
+                String preferencesPath = i < preferencesPaths.length ? preferencesPaths[i] : null;
+                Object[] engineerArgs = {itemsPath, preferencesPath, protocolPath, seed != null ? seed + i + 1 : null};
+                mc.createNewAgent(ManagerAgent.ENGINEER_PREFIX + (i + 1), EngineerAgent.class.getName(), engineerArgs).start();
+            }
             
-            // Creating and starting a manager agent
-            mc.createNewAgent("manager", ManagerAgent.class.getName(), new Object[] {itemsPath}).start();
+            // Creating and starting the manager agents, each one leading its own negotiation (a session of every engineer)
+            // With a seed, the first manager draws its choices from the seed itself, the next ones from seed - 1, seed - 2...
+            for (int i = 0; i < managerCount; i++) {
+                String managerName = managerCount == 1 ? Simulation.MANAGER_NAME : Simulation.MANAGER_NAME + (i + 1);
+                mc.createNewAgent(managerName, ManagerAgent.class.getName(), new Object[] {itemsPath, engineerCount, seed != null ? seed - i : null}).start();
+            }
             
         } catch(StaleProxyException e) {
             e.printStackTrace();
         }
     }
+    
+    /** Runs a single negotiation without JADE, printing its transcript */
+    private static void runHeadless(String itemsPath, String[] preferencesPaths, String protocolPath, int engineerCount, long seed) {
+        Optional<ArrayList<Item>> items = Item.loadFromFile(itemsPath);
+        if (!items.isPresent()) {
+            System.out.println("Item list file was not found.");
+            return;
+        }
+        
+        Preferences[] preferences = new Preferences[engineerCount];
+        for (int i = 0; i < engineerCount && i < preferencesPaths.length; i++) {
+            preferences[i] = new Preferences();
+            if (!preferences[i].loadFromFile(preferencesPaths[i], items.get())) {
+                return;
+            }
+        }
+        
+        Simulation simulation = new Simulation(items.get(), preferences, protocolPath, seed);
+        simulation.setOutput(System.out::println);
+        simulation.run();
+        System.out.println("Simulation: " + simulation.getMessageCount() + " messages, " + simulation.getCycleCount()
+                + " cycles, virtual time: " + simulation.getClock() + ".");
+    }
 }
@@ -0,0 +1,424 @@
+package centralesupelec.engine;
+
+import centralesupelec.engine.agents.EngineerAgent;
+import centralesupelec.engine.agents.LatencyHistogram;
+import centralesupelec.engine.agents.ManagerAgent;
+import centralesupelec.engine.agents.NegotiationProbe;
+import centralesupelec.engine.argumentation.Item;
+import centralesupelec.engine.simulation.Simulation;
+import centralesupelec.engine.state_machine.State;
+import centralesupelec.engine.state_machine.actions.ParallelEvaluation;
+
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.wrapper.AgentContainer;
+import jade.wrapper.AgentController;
+import jade.wrapper.ControllerException;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/** An end-to-end benchmark of negotiations between agents of a JADE main container, booted in this process as by the Launcher (without GUI nor MTP).
+ * Engineers with seeded random preferences negotiate a generated catalog, driven by managers that are started one after the other
+ * until the requested number of selection cycles was run. Each cycle is a negotiation between the engineers, concluded by an agreement
+ * on an item or a cancellation. The agents are measured by a NegotiationProbe, and the results are written to a JSON report
+ * so that the runs of different versions can be compared.
+ *
+ * @author Thomas Lamson
+ */
+public class NegotiationBenchmark {
+    /** Time without any message sent after which a negotiation is considered stuck, and stopped */
+    private static final long STALL_TIMEOUT_MS = 30000;
+    
+    /** Time without any message sent nor queued after which the messages of the last negotiation are considered handled */
+    private static final long QUIET_MS = 50;
+    
+    /** Number of times the heap used by the engineers is measured, each time with engineers started anew */
+    private static final int HEAP_SAMPLES = 5;
+    
+    /** Number of items of the generated catalog */
+    private int catalogSize;
+    private int engineerCount;
+    /** Number of measured selection cycles, and of cycles run before them to warm the JVM up */
+    private int cycles;
+    private int warmupCycles;
+    private long seed;
+    /** Protocol file followed by the engineers, null for the default protocol */
+    private String protocolPath;
+    
+    private ArrayList<Item> catalog;
+    private AgentContainer container;
+    private ArrayList<AgentController> engineers = new ArrayList<>();
+    /** The engineers themselves, whose message queues tell if messages are still in flight. Forgotten once they are killed */
+    private ArrayList<EngineerAgent> engineerAgents = new ArrayList<>();
+    /** Number of managers started so far, numbering the next one */
+    private int managerCount = 0;
+    /** Did a negotiation get stuck, ending the benchmark early? */
+    private boolean stalled = false;
+    
+    /** Measures of the measured cycles */
+    private NegotiationProbe probe;
+    private long wallNanos;
+    /** Heap retained by each engineer once started, then once warmed up by the warm-up cycles, by sample, sorted */
+    private long[] idleHeapPerAgent = new long[HEAP_SAMPLES];
+    private long[] warmedHeapPerAgent = new long[HEAP_SAMPLES];
+    /** Sessions and catalog indices held by each engineer when its warmed heap is measured, on average over the samples */
+    private double sessionsPerAgent;
+    private double catalogIndicesPerAgent;
+    
+    public NegotiationBenchmark(int catalogSizeIn, int engineerCountIn, int cyclesIn, int warmupCyclesIn, long seedIn, String protocolPathIn) {
+        catalogSize = catalogSizeIn;
+        engineerCount = engineerCountIn;
+        cycles = cyclesIn;
+        warmupCycles = warmupCyclesIn;
+        seed = seedIn;
+        protocolPath = protocolPathIn;
+    }
+    
+    /** Boots the container and its engineers, then runs the warm-up cycles and the measured cycles */
+    public void run() throws ControllerException, InterruptedException {
+        catalog = buildCatalog(catalogSize);
+        
+        // Initializing Jade, without the HTTP transport that only agents of other platforms would use
+        Runtime rt = Runtime.instance();
+        rt.setCloseVM(true);
+        Profile pMain = new ProfileImpl("localhost", 8889, null);
+        pMain.setParameter(Profile.NO_MTP, "true");
+        container = rt.createMainContainer(pMain);
+        startEngineers();
+        
+        // Probes are only swapped once every message of the previous negotiations was handled, so that each one measures its own messages
+        NegotiationProbe.install(new NegotiationProbe());
+        runCycles(warmupCycles);
+        waitForQuiescence();
+        
+        probe = new NegotiationProbe();
+        NegotiationProbe.install(probe);
+        long start = System.nanoTime();
+        runCycles(cycles);
+        wallNanos = System.nanoTime() - start;
+        waitForQuiescence();
+        NegotiationProbe.install(null);
+        stopEngineers();
+        
+        measureHeapPerAgent();
+    }
+    
+    /** Measures the heap retained by each engineer, as the heap used once the engineers are started, then warmed up, less the heap used without them.
+     * Everything shared by the engineers (items, protocol, compiled code) was loaded by the measured cycles, so only what belongs to the engineers
+     * is counted. Engineers are started anew for each sample, with the same preferences, and the samples are sorted to report their spread.
+     * A first sample is not recorded: the container still frees what the measured cycles left during it */
+    private void measureHeapPerAgent() throws ControllerException, InterruptedException {
+        long sessions = 0;
+        long catalogIndices = 0;
+        for (int sample = -1; sample < HEAP_SAMPLES; sample++) {
+            long baseHeap = measureUsedHeap();
+            startEngineers();
+            long idleHeap = (measureUsedHeap() - baseHeap) / engineerCount;
+            
+            // Warming the engineers up as before the measured cycles: managers are deleted once over, and concluded negotiations release their session
+            NegotiationProbe.install(new NegotiationProbe());
+            runCycles(warmupCycles);
+            waitForQuiescence();
+            NegotiationProbe.install(null);
+            long warmedHeap = (measureUsedHeap() - baseHeap) / engineerCount;
+            if (sample >= 0) {
+                idleHeapPerAgent[sample] = idleHeap;
+                warmedHeapPerAgent[sample] = warmedHeap;
+                for (EngineerAgent engineer : engineerAgents) {
+                    sessions += engineer.getSessionCount();
+                    catalogIndices += engineer.getCatalogIndexCount();
+                }
+            }
+            stopEngineers();
+        }
+        Arrays.sort(idleHeapPerAgent);
+        Arrays.sort(warmedHeapPerAgent);
+        sessionsPerAgent = (double) sessions / (HEAP_SAMPLES * engineerCount);
+        catalogIndicesPerAgent = (double) catalogIndices / (HEAP_SAMPLES * engineerCount);
+    }
+    
+    /** Creates and starts the engineer agents, engineerN randomizing its preferences from seed + N as with the Launcher, and waits for their setup.
+     * Transcripts are discarded: printing them would be measured with the negotiations */
+    private void startEngineers() throws ControllerException, InterruptedException {
+        for (int i = 0; i < engineerCount; i++) {
+            EngineerAgent engineer = new EngineerAgent();
+            engineer.setOutput(line -> {});
+            engineer.setArguments(new Object[] {catalog, null, protocolPath, seed + i + 1});
+            AgentController controller = container.acceptNewAgent(ManagerAgent.ENGINEER_PREFIX + (i + 1), engineer);
+            controller.start();
+            engineers.add(controller);
+            engineerAgents.add(engineer);
+        }
+        
+        // The setup of an engineer indexes its initial catalog
+        long startedAt = System.currentTimeMillis();
+        for (EngineerAgent engineer : engineerAgents) {
+            while (engineer.getCatalogIndexCount() == 0 && System.currentTimeMillis() - startedAt < STALL_TIMEOUT_MS) {
+                Thread.sleep(1);
+            }
+        }
+    }
+    
+    /** Kills the engineer agents and waits until they were deleted by the container and collected, which only weak references still tell */
+    private void stopEngineers() throws ControllerException, InterruptedException {
+        ArrayList<WeakReference<EngineerAgent>> collected = new ArrayList<>();
+        for (EngineerAgent engineer : engineerAgents) {
+            collected.add(new WeakReference<>(engineer));
+        }
+        engineerAgents.clear();
+        for (AgentController engineer : engineers) {
+            engineer.kill();
+        }
+        engineers.clear();
+        waitForCollection(collected);
+    }
+    
+    /** Stops the container, and the JVM with it */
+    public void shutDown() throws ControllerException {
+        container.kill();
+    }
+    
+    /** Runs negotiations until a given number of cycles was run, each manager running at most one cycle per item of the catalog */
+    private void runCycles(int count) throws ControllerException, InterruptedException {
+        int remaining = count;
+        while (remaining > 0 && !stalled) {
+            remaining -= runNegotiation(Math.min(remaining, catalogSize));
+        }
+    }
+    
+    /** Starts a manager running a given number of cycles and waits for it to stop, or for a cancellation. Returns the number of cycles run */
+    private int runNegotiation(int maxCycles) throws ControllerException, InterruptedException {
+        NegotiationProbe current = NegotiationProbe.get();
+        long agreementsBefore = current.getAgreements();
+        long cancellationsBefore = current.getCancellations();
+        
+        // Managers draw their choices from seed, seed - 1, seed - 2... as with the Launcher
+        ManagerAgent manager = new ManagerAgent();
+        manager.setOutput(line -> {});
+        manager.setArguments(new Object[] {catalog, engineerCount, seed - managerCount, maxCycles});
+        managerCount++;
+        AgentController controller = container.acceptNewAgent(Simulation.MANAGER_NAME + managerCount, manager);
+        controller.start();
+        
+        // The manager stops by itself after its last cycle, but waits forever after a cancellation
+        long messages = current.getMessages();
+        long lastProgress = System.currentTimeMillis();
+        while (!manager.isFinished()) {
+            if (current.getCancellations() > cancellationsBefore) {
+                controller.kill();
+                break;
+            }
+            if (current.getMessages() != messages) {
+                messages = current.getMessages();
+                lastProgress = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - lastProgress > STALL_TIMEOUT_MS) {
+                System.out.println("Benchmark: negotiation of " + Simulation.MANAGER_NAME + managerCount + " is stuck, stopping.");
+                controller.kill();
+                stalled = true;
+                break;
+            }
+            Thread.sleep(1);
+        }
+        return (int) (current.getAgreements() - agreementsBefore + current.getCancellations() - cancellationsBefore);
+    }
+    
+    /** Waits until the messages sent so far were handled: no engineer has messages queued, and no message was sent for QUIET_MS */
+    private void waitForQuiescence() throws InterruptedException {
+        NegotiationProbe current = NegotiationProbe.get();
+        long messages = current.getMessages();
+        long quietSince = System.currentTimeMillis();
+        while (System.currentTimeMillis() - quietSince < QUIET_MS) {
+            boolean queued = false;
+            for (EngineerAgent engineer : engineerAgents) {
+                queued |= engineer.getCurQueueSize() > 0;
+            }
+            if (queued || current.getMessages() != messages) {
+                messages = current.getMessages();
+                quietSince = System.currentTimeMillis();
+            }
+            Thread.sleep(1);
+        }
+    }
+    
+    /** Waits until killed agents were deleted by the container and collected, collecting the heap until then */
+    private static void waitForCollection(ArrayList<WeakReference<EngineerAgent>> agents) throws InterruptedException {
+        long killedAt = System.currentTimeMillis();
+        while (System.currentTimeMillis() - killedAt < STALL_TIMEOUT_MS) {
+            agents.removeIf(agent -> agent.get() == null);
+            if (agents.isEmpty()) {
+                return;
+            }
+            ManagementFactory.getMemoryMXBean().gc();
+            Thread.sleep(10);
+        }
+        System.out.println("Benchmark: " + agents.size() + " engineers were not collected, heap per agent is underestimated.");
+    }
+    
+    /** Builds a catalog of a given number of items, named Item0, Item1... */
+    private static ArrayList<Item> buildCatalog(int size) {
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                items.append('|');
+            }
+            items.append("Item").append(i).append(";Description of item ").append(i);
+        }
+        return Item.parseItems(items.toString());
+    }
+    
+    /** Measures the heap used by reachable objects, after collecting the others */
+    private static long measureUsedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+    
+    /** Writes the parameters and the results of the benchmark as a JSON object. Latencies are in nanoseconds */
+    public void writeReport(Writer out) throws IOException {
+        long concluded = probe.getAgreements() + probe.getCancellations();
+        double seconds = wallNanos / 1e9;
+        
+        StringBuilder report = new StringBuilder();
+        report.append("{\n");
+        report.append("  \"parameters\": {\"items\": ").append(catalogSize).append(", \"engineers\": ").append(engineerCount)
+            .append(", \"cycles\": ").append(cycles).append(", \"warmup_cycles\": ").append(warmupCycles).append(", \"seed\": ").append(seed)
+            .append(", \"protocol\": ").append(protocolPath == null ? "null" : quote(protocolPath)).append("},\n");
+        report.append("  \"environment\": {\"java\": ").append(quote(System.getProperty("java.version")))
+            .append(", \"cores\": ").append(java.lang.Runtime.getRuntime().availableProcessors())
+            .append(", \"max_heap_bytes\": ").append(java.lang.Runtime.getRuntime().maxMemory()).append("},\n");
+        report.append("  \"stalled\": ").append(stalled).append(",\n");
+        report.append("  \"wall_time_s\": ").append(format(seconds)).append(",\n");
+        report.append("  \"negotiations\": ").append(concluded).append(",\n");
+        report.append("  \"agreements\": ").append(probe.getAgreements()).append(",\n");
+        report.append("  \"cancellations\": ").append(probe.getCancellations()).append(",\n");
+        report.append("  \"negotiations_per_s\": ").append(format(concluded / seconds)).append(",\n");
+        report.append("  \"messages\": ").append(probe.getMessages()).append(",\n");
+        report.append("  \"deliveries\": ").append(probe.getDeliveries()).append(",\n");
+        report.append("  \"messages_per_agreement\": ")
+            .append(probe.getAgreements() == 0 ? "null" : format((double) probe.getMessages() / probe.getAgreements())).append(",\n");
+        report.append("  \"decision_latency_ns\": {\n");
+        boolean first = true;
+        for (State state : State.values()) {
+            LatencyHistogram latency = probe.getDecisionLatency(state);
+            if (latency.getCount() > 0) {
+                report.append(first ? "" : ",\n").append("    ").append(quote(state.name())).append(": ");
+                appendLatency(report, latency);
+                first = false;
+            }
+        }
+        report.append("\n  },\n");
+        report.append("  \"delivery_latency_ns\": ");
+        appendLatency(report, probe.getDeliveryLatency());
+        report.append(",\n  \"round_trip_latency_ns\": ");
+        appendLatency(report, probe.getRoundTripLatency());
+        report.append(",\n  \"heap_per_agent_bytes\": {\"samples\": ").append(HEAP_SAMPLES).append(", \"idle\": ");
+        appendSpread(report, idleHeapPerAgent);
+        report.append(", \"warmed\": ");
+        appendSpread(report, warmedHeapPerAgent);
+        report.append("},\n");
+        report.append("  \"sessions_per_agent\": ").append(format(sessionsPerAgent)).append(",\n");
+        report.append("  \"catalog_indices_per_agent\": ").append(format(catalogIndicesPerAgent)).append("\n");
+        report.append("}\n");
+        out.write(report.toString());
+    }
+    
+    /** Prints the main results */
+    public void printSummary() {
+        long concluded = probe.getAgreements() + probe.getCancellations();
+        double seconds = wallNanos / 1e9;
+        System.out.println("Benchmark: " + concluded + " negotiations (" + probe.getAgreements() + " agreements) in " + String.format(Locale.ROOT, "%.2f", seconds)
+                + " s, " + String.format(Locale.ROOT, "%.1f", concluded / seconds) + " negotiations per second, "
+                + String.format(Locale.ROOT, "%.1f", (double) probe.getMessages() / Math.max(1, probe.getAgreements())) + " messages per agreement.");
+        System.out.println("Benchmark: round trip p50/p99/p999 " + probe.getRoundTripLatency().getPercentile(0.5) / 1000 + "/"
+                + probe.getRoundTripLatency().getPercentile(0.99) / 1000 + "/" + probe.getRoundTripLatency().getPercentile(0.999) / 1000
+                + " us, heap per warmed agent " + warmedHeapPerAgent[0] / 1024 + "/" + warmedHeapPerAgent[HEAP_SAMPLES / 2] / 1024 + "/"
+                + warmedHeapPerAgent[HEAP_SAMPLES - 1] / 1024 + " KiB (min/median/max) with " + String.format(Locale.ROOT, "%.1f", sessionsPerAgent) + " sessions.");
+    }
+    
+    private static void appendLatency(StringBuilder report, LatencyHistogram latency) {
+        report.append("{\"count\": ").append(latency.getCount()).append(", \"p50\": ").append(latency.getPercentile(0.5))
+            .append(", \"p99\": ").append(latency.getPercentile(0.99)).append(", \"p999\": ").append(latency.getPercentile(0.999))
+            .append(", \"max\": ").append(latency.getMax()).append('}');
+    }
+    
+    /** Appends the spread of sorted samples */
+    private static void appendSpread(StringBuilder report, long[] samples) {
+        report.append("{\"min\": ").append(samples[0]).append(", \"median\": ").append(samples[samples.length / 2])
+            .append(", \"max\": ").append(samples[samples.length - 1]).append('}');
+    }
+    
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+    
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+    
+    /** Runs the benchmark.
+     * @param args the arguments of the program, each one optional: "--items N" the catalog size (10 by default), "--engineers A" the number of engineers
+     *             (2 by default), "--cycles K" the number of measured selection cycles (100 by default), "--warmup W" the number of cycles run before
+     *             (20 by default), "--seed S" the seed of the agents, "--protocol PATH" the protocol file of the engineers,
+     *             "--output PATH" the report file (benchmark.json by default), the "--parallel" flag evaluating the candidate arguments
+     *             of the engineers in parallel (see ParallelEvaluation) and "--parallel-min N" the minimal number of candidates evaluated in parallel (8 by default).
+     */
+    public static void main(String[] args) throws ControllerException, InterruptedException, IOException {
+        int catalogSize = 10;
+        int engineerCount = ManagerAgent.DEFAULT_ENGINEER_COUNT;
+        int cycles = 100;
+        int warmupCycles = 20;
+        long seed = 0;
+        String protocolPath = null;
+        String outputPath = "benchmark.json";
+        
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--parallel")) {
+                ParallelEvaluation.setEnabled(true);
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                break;
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--items": catalogSize = Math.max(1, Integer.parseInt(value)); break;
+                case "--engineers": engineerCount = Math.max(2, Integer.parseInt(value)); break;
+                case "--cycles": cycles = Math.max(1, Integer.parseInt(value)); break;
+                case "--warmup": warmupCycles = Math.max(0, Integer.parseInt(value)); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--protocol": protocolPath = value; break;
+                case "--output": outputPath = value; break;
+                case "--parallel-min": ParallelEvaluation.setMinCandidates(Math.max(2, Integer.parseInt(value))); break;
+                default:
+                    System.out.println("Unknown option \"" + option + "\".");
+                    return;
+            }
+        }
+        
+        System.out.println("Benchmark: " + cycles + " cycles (after " + warmupCycles + " warm-up cycles) between " + engineerCount
+                + " engineers on a catalog of " + catalogSize + " items, report in " + outputPath + ".");
+        NegotiationBenchmark benchmark = new NegotiationBenchmark(catalogSize, engineerCount, cycles, warmupCycles, seed, protocolPath);
+        benchmark.run();
+        
+        Writer report = new FileWriter(outputPath);
+        try {
+            benchmark.writeReport(report);
+        } finally {
+            report.close();
+        }
+        benchmark.printSummary();
+        benchmark.shutDown();
+    }
+}
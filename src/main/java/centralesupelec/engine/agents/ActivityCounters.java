@@ -0,0 +1,68 @@
+package centralesupelec.engine.agents;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/** Counters of the activations of an agent's behaviour: how often it was woken up, how often there was nothing to do,
+ * how many events (messages and transitions) it handled and how much CPU time it used.
+ *
+ * @author Thomas Lamson
+ */
+public class ActivityCounters {
+    /** Used to measure the CPU time of the agent's thread, when the JVM supports it */
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    
+    private long wakeups = 0;
+    private long idleWakeups = 0;
+    private long handledEvents = 0;
+    private long cpuNanos = 0;
+    private long idleCpuNanos = 0;
+    
+    /** CPU time of the thread when the current activation started, -1 if not measured */
+    private long activationStart = -1;
+    
+    /** Marks the beginning of an activation of the behaviour */
+    public void beginActivation() {
+        wakeups++;
+        activationStart = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+    
+    /** Marks the end of an activation of the behaviour, which handled a given number of events */
+    public void endActivation(int events) {
+        handledEvents += events;
+        
+        long spent = activationStart < 0 ? 0 : THREADS.getCurrentThreadCpuTime() - activationStart;
+        cpuNanos += spent;
+        if (events == 0) {
+            idleWakeups++;
+            idleCpuNanos += spent;
+        }
+    }
+    
+    public String toString() {
+        return "wakeups: " + wakeups + ", idle wakeups: " + idleWakeups + ", handled events: " + handledEvents
+                + ", CPU time: " + cpuNanos / 1000000 + " ms (idle: " + idleCpuNanos / 1000000 + " ms)";
+    }
+    
+    // ------- GETTERS ------- // ------- SETTERS ------- //
+    
+    public long getWakeups() {
+        return wakeups;
+    }
+    
+    public long getIdleWakeups() {
+        return idleWakeups;
+    }
+    
+    public long getHandledEvents() {
+        return handledEvents;
+    }
+    
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+    
+    public long getIdleCpuNanos() {
+        return idleCpuNanos;
+    }
+}
@@ -0,0 +1,101 @@
+package centralesupelec.engine.agents;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import centralesupelec.engine.argumentation.AcceptanceIndex;
+import centralesupelec.engine.argumentation.Item;
+import centralesupelec.engine.argumentation.ItemRanking;
+import centralesupelec.engine.argumentation.Preferences;
+import centralesupelec.engine.argumentation.graph.ArgumentMemo;
+
+/** The structures an EngineerAgent derives from a full catalog: the position of each item, the ranking of the items,
+ * the acceptance index of the whole catalog and the memo of generated arguments. They only depend on the catalog and on the agent's
+ * preferences, and don't change when items are removed, so the sessions over the same catalog share them (see EngineerAgent.setItems).
+ * Each session only keeps the items removed since the catalog was received (see NegotiationSession).
+ *
+ * @author Thomas Lamson
+ */
+public class CatalogIndex {
+    /** Full catalog as sent by the manager. The position of an item identifies it in catalog deltas and binary messages */
+    private List<Item> catalog;
+    /** Index of each item in the catalog, indexed by item id from the smallest id of the catalog (-1 if out of the catalog).
+     * Catalogs registered together have consecutive ids, so the array is about the size of the catalog whatever the number of registered items */
+    private int[] itemIndices;
+    private int itemIdBase;
+    
+    /** Acceptance index of the whole catalog, copied by each session before removing items from it */
+    private AcceptanceIndex acceptance;
+    /** Items of the catalog ranked by score */
+    private ItemRanking ranking;
+    /** Arguments already generated for proposal branches */
+    private ArgumentMemo argumentMemo = new ArgumentMemo();
+    
+    /** Number of sessions using this index, which is forgotten by the agent when none does */
+    private int sessionCount = 0;
+    
+    /** Indexes a full catalog for some preferences. The catalog must not be modified afterwards */
+    public CatalogIndex(Preferences preferences, List<Item> catalogIn) {
+        catalog = catalogIn;
+        
+        int minId = Integer.MAX_VALUE;
+        int maxId = -1;
+        for (Item item : catalog) {
+            minId = Math.min(minId, item.getId());
+            maxId = Math.max(maxId, item.getId());
+        }
+        itemIdBase = catalog.isEmpty() ? 0 : minId;
+        itemIndices = new int[maxId + 1 - itemIdBase];
+        Arrays.fill(itemIndices, -1);
+        
+        // Keeping the first position of an item, as the former linear search did
+        for (int i = catalog.size() - 1; i >= 0; i--) {
+            itemIndices[catalog.get(i).getId() - itemIdBase] = i;
+        }
+        
+        // An item listed twice only counts once
+        ArrayList<Item> distinctItems = new ArrayList<>(catalog.size());
+        for (int i = 0; i < catalog.size(); i++) {
+            if (getItemIndex(catalog.get(i)) == i) {
+                distinctItems.add(catalog.get(i));
+            }
+        }
+        acceptance = new AcceptanceIndex(preferences, distinctItems);
+        ranking = new ItemRanking(preferences, distinctItems);
+    }
+    
+    /** Retrieves the first position of an item in the catalog, -1 if it is not in the catalog */
+    public int getItemIndex(Item item) {
+        int slot = item.getId() - itemIdBase;
+        return slot >= 0 && slot < itemIndices.length ? itemIndices[slot] : -1;
+    }
+    
+    /** Counts a session using this index. Returns the number of sessions using it */
+    int acquire() {
+        return ++sessionCount;
+    }
+    
+    /** Counts a session no longer using this index. Returns the number of sessions still using it */
+    int release() {
+        return --sessionCount;
+    }
+    
+    // ------- GETTERS ------- // ------- SETTERS ------- //
+    
+    public List<Item> getCatalog() {
+        return catalog;
+    }
+    
+    public AcceptanceIndex getAcceptance() {
+        return acceptance;
+    }
+    
+    public ItemRanking getRanking() {
+        return ranking;
+    }
+    
+    public ArgumentMemo getArgumentMemo() {
+        return argumentMemo;
+    }
+}
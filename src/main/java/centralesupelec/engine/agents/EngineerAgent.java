@@ -3,63 +3,96 @@ package centralesupelec.engine.agents;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.function.Consumer;
 
 import centralesupelec.engine.argumentation.Item;
+import centralesupelec.engine.argumentation.ItemRanking;
 import centralesupelec.engine.argumentation.Preferences;
+import centralesupelec.engine.argumentation.graph.ArgumentMemo;
 import centralesupelec.engine.argumentation.graph.NegotiationGraph;
+import centralesupelec.engine.state_machine.Protocol;
 import centralesupelec.engine.state_machine.State;
 import centralesupelec.engine.state_machine.StateMachine;
 import jade.core.AID;
 import jade.core.Agent;
+import jade.lang.acl.ACLMessage;
 
-/** An agent able to negotiate about items with another EngineerAgent
+/** An agent able to negotiate about items with other EngineerAgents, in as many concurrent negotiations (sessions) as needed.
+ * The agent usually runs in a JADE container, but can also be driven without one (see setupHeadless).
  *
  * @author Thomas Lamson
  */
 public class EngineerAgent extends Agent {
     private static final long serialVersionUID = 1L;
-
-    /** Reference to the manager agent */
-    private AID manager = new AID("manager", AID.ISLOCALNAME);
-    /** References to the engineers negotiating */
-    private AID[] engineers = {new AID("engineer1", AID.ISLOCALNAME), new AID("engineer2", AID.ISLOCALNAME)};
-    /** Reference to the other engineer */
-    private AID otherEngineer;
+    
+    /** Conversation id of the messages without one, and of the session used before any message was received */
+    public static final String DEFAULT_CONVERSATION_ID = "";
+    
+    /** Maximal number of sessions kept at once. Sessions are ended when their negotiation concludes (see endSession),
+     * and beyond this number the least recently used idle session is forgotten too (see evictIdleSession) */
+    public static final int MAX_SESSIONS = 1 << 14;
     
     private Preferences preferences = new Preferences();
+    /** Items of the item list file given at setup */
     private ArrayList<Item> items = new ArrayList<>();
     
-    /** A finite state machine describing the protocol by actions we can perform upon receiving performatives */
-    private StateMachine stateMachine = new StateMachine();
-    /** A negotiation graph that handles the argumentation storage, generation and solving */
-    private NegotiationGraph graph = new NegotiationGraph();
+    /** Encoding of the messages exchanged with the other agents */
+    private MessageCodec codec = new MessageCodec();
+    
+    /** Activity of the agent's behaviour, printed when the agent stops */
+    private ActivityCounters activityCounters = new ActivityCounters();
+    
+    /** Transition rules followed in every session, shared with other agents following the same protocol */
+    private Protocol protocol = Protocol.getDefault();
+    
+    /** The negotiations we take part in, by conversation id, from the least recently selected to the most recently selected */
+    private LinkedHashMap<String, NegotiationSession> sessions = new LinkedHashMap<>();
+    
+    /** Structures derived from the catalogs of the sessions, shared by the sessions over the same catalog, by catalog */
+    private HashMap<List<Item>, CatalogIndex> catalogIndices = new HashMap<>();
+    
+    /** The session of the message being handled, that the getters below refer to */
+    private NegotiationSession session = selectSession(DEFAULT_CONVERSATION_ID);
     
-    /** A simple placeholder to remember the item being discussed currently */
-    public Item currentItem;
+    /** The behaviour handling messages and state transitions, added at setup */
+    private NegotiateBehaviour negotiateBehaviour;
     
-    /** Starts and initializes the agent */
+    /** Identifier of the agent when it runs without a JADE container, null in a container */
+    private AID headlessAID;
+    /** Delivers the messages of the agent when it runs without a JADE container, null in a container */
+    private MessageTransport transport;
+    /** Receives every line the agent prints: its part of the negotiation transcript */
+    private Consumer<String> output = System.out::println;
+    /** Did the agent stop, after a setup failure? */
+    private boolean finished = false;
+    
+    /** Starts and initializes the agent.
+     * Arguments are the item list (a file path, or an already parsed list of items), the preferences (a file path, already loaded Preferences,
+     * or null to randomize them), an optional protocol file path (null for the default protocol) and an optional seed of the random preferences. */
     protected void setup() {
         // Printout a welcome message
-        System.out.println("Hello! Engineer-agent " + getAID().getName() + " is ready.");
-        
-        // We need the AID of the other EngineerAgent we're negotiating with
-        if (getAID().equals(engineers[0])) {
-            otherEngineer = engineers[1];
-        } else {
-            otherEngineer = engineers[0];
-        }
+        log("Hello! Engineer-agent " + getSelf().getName() + " is ready.");
         
-        // Initializes the state machine at the initial state "WAIT"
-        stateMachine.setState(State.WAIT);
-
         // Parsing arguments
         Object[] args = getArguments();
         
         if (args == null || args.length == 0) {
-            System.out.println("Didn't receive an item list path at setup. Shutting down...");
-            doDelete();
+            log("Didn't receive an item list path at setup. Shutting down...");
+            terminate();
+        } else if (args[0] instanceof ArrayList<?>) {
+            
+            // We received the items already parsed
+            for (Object item : (ArrayList<?>) args[0]) {
+                items.add((Item) item);
+            }
         } else {
             
             // Parsing items in file
@@ -76,80 +109,353 @@ public class EngineerAgent extends Agent {
                 
                 scanner.close();
             } catch(FileNotFoundException e) {
-                System.out.println("Item list file was not found. Shutting down...");
-                doDelete();
+                log("Item list file was not found. Shutting down...");
+                terminate();
             }
-            
-            if (args.length > 1) {
+        }
+        
+        if (args != null && args.length > 0) {
+            if (args.length > 1 && args[1] instanceof Preferences) {
+                
+                // We received preferences already loaded, that are only read from now on and can be shared with other agents
+                preferences = (Preferences) args[1];
+                session = null;
+                sessions.clear();
+                selectSession(DEFAULT_CONVERSATION_ID);
+            } else if (args.length > 1 && args[1] != null) {
                 
                 // We received a preferences file, we try to load it but it can also fail for many reasons
                 String preferencesPath = (String) args[1];
-                System.out.println("Loading preferences file: " + preferencesPath);
+                log("Loading preferences file: " + preferencesPath);
                 if (!preferences.loadFromFile(preferencesPath, items)) {
-                    doDelete();
+                    terminate();
                 }
             } else {
                 
-                // We didn't receive a preferences file, we simply randomize them
-                System.out.println("Randomizing preferences.");
-                preferences.randomize(items);
+                // We didn't receive a preferences file, we simply randomize them, from a seed if we received one
+                log("Randomizing preferences.");
+                preferences.randomize(items, args.length > 3 && args[3] != null ? new Random((Long) args[3]) : new Random());
+            }
+            
+            if (args.length > 2 && args[2] != null) {
+                
+                // We received a protocol file, agents loading the same file share its compiled transition rules
+                String protocolPath = (String) args[2];
+                log("Loading protocol file: " + protocolPath);
+                Optional<Protocol> protocol = Protocol.loadFromFile(protocolPath);
+                if (protocol.isPresent()) {
+                    this.protocol = protocol.get();
+                    session = null;
+                    sessions.clear();
+                    selectSession(DEFAULT_CONVERSATION_ID);
+                } else {
+                    terminate();
+                }
             }
+            
+            // Indexing the initial catalog in the default session now that preferences are known
+            setItems(items);
         }
         
         // Initializes the negotiation behavior that will handle messages and state transitions
-        addBehaviour(new NegotiateBehaviour());
+        negotiateBehaviour = new NegotiateBehaviour();
+        addBehaviour(negotiateBehaviour);
+    }
+    
+    /** Sets up the agent outside of a JADE container, with the same arguments as in a container (see setup).
+     * The agent is then identified by a given AID, sends its messages through a given transport and receives them through postMessage. */
+    public void setupHeadless(AID aid, MessageTransport transportIn, Object[] args) {
+        headlessAID = aid;
+        transport = transportIn;
+        setArguments(args);
+        setup();
+    }
+    
+    /** Sends a message to its receivers, through the transport when the agent runs without a JADE container */
+    public void sendMessage(ACLMessage msg) {
+        NegotiationProbe probe = NegotiationProbe.get();
+        if (probe != null) {
+            probe.messageSent(msg, getSelf());
+        }
+        if (transport == null) {
+            send(msg);
+        } else {
+            msg.setSender(headlessAID);
+            transport.send(msg);
+        }
     }
     
-    /** Resets the negotiation graph for the next negotiation round */
+    /** Prints a line of the negotiation transcript */
+    public void log(String line) {
+        output.accept(line);
+    }
+    
+    /** Stops the agent: deletes it from its container. Without a container, the agent is no longer activated (see isFinished) */
+    public void terminate() {
+        finished = true;
+        if (transport == null) {
+            doDelete();
+        }
+    }
+    
+    /** Selects the session of a given conversation, creating it if it is new. The methods of the agent then refer to this session */
+    public NegotiationSession selectSession(String conversationId) {
+        String id = conversationId == null ? DEFAULT_CONVERSATION_ID : conversationId;
+        if (session == null || !session.getConversationId().equals(id)) {
+            // Moving the session to the most recently selected end
+            NegotiationSession selected = sessions.remove(id);
+            if (selected == null) {
+                selected = new NegotiationSession(id, protocol);
+            }
+            sessions.put(id, selected);
+            session = selected;
+            codec.switchConversation(id);
+            if (sessions.size() > MAX_SESSIONS) {
+                evictIdleSession();
+            }
+        }
+        return session;
+    }
+    
+    /** Retrieves the session of a given conversation without selecting it, creating it if it is new */
+    public NegotiationSession getSession(String conversationId) {
+        String id = conversationId == null ? DEFAULT_CONVERSATION_ID : conversationId;
+        return sessions.computeIfAbsent(id, key -> new NegotiationSession(key, protocol));
+    }
+    
+    /** Retrieves the session of a given conversation without selecting it, null if there is none */
+    public NegotiationSession findSession(String conversationId) {
+        return sessions.get(conversationId == null ? DEFAULT_CONVERSATION_ID : conversationId);
+    }
+    
+    /** Ends the session of a conversation whose negotiation concluded, if there is one: the session and what its codec conversation advertised
+     * are forgotten, with the structures of its catalog when no other session shares them. The default session is selected if it was the current one */
+    public void endSession(String conversationId) {
+        NegotiationSession ended = sessions.remove(conversationId == null ? DEFAULT_CONVERSATION_ID : conversationId);
+        if (ended != null) {
+            forget(ended);
+        }
+    }
+    
+    /** Forgets a session that was removed from the sessions */
+    private void forget(NegotiationSession ended) {
+        codec.endConversation(ended.getConversationId());
+        releaseCatalogIndex(ended.getCatalogIndex());
+        if (ended == session) {
+            session = null;
+            selectSession(DEFAULT_CONVERSATION_ID);
+        }
+    }
+    
+    /** Forgets the least recently selected idle session: waiting in WAIT, without deferred messages. A session waiting in another state
+     * is in the middle of a cycle, and forgetting it would leave the panel waiting for us, so sessions are kept beyond MAX_SESSIONS while none is idle.
+     * Concluded negotiations are already ended, so a session in WAIT may still be in the middle of a cycle or expect the next one:
+     * its conversation is ended explicitly with a CANCEL to its panel and manager */
+    private void evictIdleSession() {
+        Iterator<NegotiationSession> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            NegotiationSession eldest = it.next();
+            if (eldest != session && eldest.getStateMachine().getState() == State.WAIT && !eldest.hasDeferredMessages()) {
+                it.remove();
+                forget(eldest);
+                if (eldest.getPanel().length > 0) {
+                    ACLMessage cancel = new ACLMessage(ACLMessage.CANCEL);
+                    for (AID engineer : eldest.getOtherEngineers()) {
+                        cancel.addReceiver(engineer);
+                    }
+                    cancel.addReceiver(eldest.getManager());
+                    cancel.setConversationId(eldest.getConversationId());
+                    cancel.addUserDefinedParameter(ManagerBehaviour.CATALOG_VERSION_PARAMETER, Integer.toString(eldest.getCatalogVersion()));
+                    cancel.addUserDefinedParameter(NegotiateBehaviour.MOVE_PARAMETER, Integer.toString(eldest.nextMove()));
+                    cancel.setContent("");
+                    log(getDisplayName() + ": CANCEL (too many sessions, forgetting conversation \"" + eldest.getConversationId() + "\")");
+                    sendMessage(cancel);
+                }
+                return;
+            }
+        }
+    }
+    
+    /** Resets the negotiation graph of the current session for the next negotiation round */
     public void resetGraph() {
-        graph = new NegotiationGraph();
+        session.resetGraph();
+    }
+    
+    /** Retrieves the shared index of a catalog, building it if no session uses this catalog yet, and counts one more session using it */
+    private CatalogIndex acquireCatalogIndex(ArrayList<Item> catalog) {
+        CatalogIndex index = catalogIndices.get(catalog);
+        if (index == null) {
+            index = new CatalogIndex(preferences, new ArrayList<>(catalog));
+            catalogIndices.put(index.getCatalog(), index);
+        }
+        index.acquire();
+        return index;
+    }
+    
+    /** Counts one less session using the index of a catalog, and forgets the index when no session uses it anymore */
+    private void releaseCatalogIndex(CatalogIndex index) {
+        if (index != null && index.release() == 0) {
+            catalogIndices.remove(index.getCatalog());
+        }
+    }
+    
+    /** Checks if a given item is acceptable among the items of the current catalog */
+    public boolean canAccept(Item item) {
+        return session.canAccept(item);
     }
     
     /** Retrieves an item by its name, useful for parsing. Optional is empty if name wasn't recognized as an item */
     public Optional<Item> getItemByName(String itemName) {
-        for (Item item : items) {
-            if (item.getName().equals(itemName)) {
-                return Optional.of(item);
-            }
-        }
-        return Optional.empty();
+        return session.getItemByName(itemName);
+    }
+    
+    /** Retrieves an item of the catalog by its name found between two indices of a string, without extracting it. Returns null if not recognized */
+    public Item getItemByName(String text, int start, int end) {
+        return session.getItemByName(text, start, end);
+    }
+    
+    /** Retrieves the index of an item in the current catalog, -1 if it is not in the catalog */
+    public int getItemIndex(Item item) {
+        return session.getItemIndex(item);
+    }
+    
+    /** Retrieves a remaining item by its index in the current catalog. Optional is empty if the index is out of the catalog or was removed */
+    public Optional<Item> getItemByIndex(int index) {
+        return session.getItemByIndex(index);
+    }
+    
+    /** Applies a catalog delta from the manager to the current session (see NegotiationSession.applyCatalogDelta) */
+    public boolean applyCatalogDelta(int version, int[] removedIndices) {
+        return session.applyCatalogDelta(version, removedIndices);
+    }
+    
+    /** Sets the panel of engineers of the current session, as the receivers of a message from the manager */
+    public void setPanel(ACLMessage catalogMsg) {
+        session.setPanel(catalogMsg, getSelf());
+    }
+    
+    /** Checks if we are the engineer that must answer a proposal or an argument from a given engineer: the next one in the panel */
+    public boolean isNextAfter(AID sender) {
+        return session.isNextAfter(sender, getSelf());
+    }
+    
+    /** Registers a CONFIRM received while waiting to take an item. Returns the number of CONFIRM messages still expected */
+    public int registerConfirm() {
+        return session.registerConfirm();
     }
     
     /** Stops the agent */
     protected void takeDown() {
-        System.out.println("Engineer-agent " + getAID().getName() + " terminating.");
+        log("Engineer-agent " + getSelf().getName() + " terminating.");
+        log("Engineer-agent " + getSelf().getName() + " activity: " + activityCounters + ".");
     }
     
     // ------- GETTERS ------- // ------- SETTERS ------- //
     
+    public NegotiationSession getSession() {
+        return session;
+    }
+    
+    public int getSessionCount() {
+        return sessions.size();
+    }
+    
+    /** Retrieves the number of catalogs indexed for the sessions, each one shared by the sessions over the same catalog */
+    public int getCatalogIndexCount() {
+        return catalogIndices.size();
+    }
+    
     public StateMachine getStateMachine() {
-        return stateMachine;
+        return session.getStateMachine();
     }
-
-    public AID getOtherEngineer() {
-        return otherEngineer;
+    
+    public Item getCurrentItem() {
+        return session.getCurrentItem();
     }
-
+    
+    public void setCurrentItem(Item currentItemIn) {
+        session.setCurrentItem(currentItemIn);
+    }
+    
+    public AID[] getPanel() {
+        return session.getPanel();
+    }
+    
+    public AID[] getOtherEngineers() {
+        return session.getOtherEngineers();
+    }
+    
+    public void setPendingConfirms(int pendingConfirmsIn) {
+        session.setPendingConfirms(pendingConfirmsIn);
+    }
+    
     public AID getManager() {
-        return manager;
+        return session.getManager();
     }
-
+    
+    /** Builds the list of the remaining items of the current catalog */
     public ArrayList<Item> getItems() {
-        return items;
+        return session.getItems();
     }
-
+    
+    /** Sets a full catalog in the current session. The catalog then only changes through catalog deltas (see applyCatalogDelta).
+     * The structures derived from the catalog are shared with the other sessions over the same catalog (see CatalogIndex) */
     public void setItems(ArrayList<Item> itemsIn) {
-        items = itemsIn;
+        CatalogIndex previous = session.getCatalogIndex();
+        session.setCatalogIndex(acquireCatalogIndex(itemsIn));
+        releaseCatalogIndex(previous);
+    }
+    
+    public int getCatalogVersion() {
+        return session.getCatalogVersion();
+    }
+    
+    public void setCatalogVersion(int catalogVersionIn) {
+        session.setCatalogVersion(catalogVersionIn);
+    }
+    
+    /** Creates a cursor over the remaining items of the current catalog, best first, that skips a collection of items (see ItemRanking) */
+    public ItemRanking.Cursor rankingCursor(Collection<Item> skippedItems) {
+        return session.rankingCursor(skippedItems);
+    }
+    
+    public ArgumentMemo getArgumentMemo() {
+        return session.getArgumentMemo();
     }
     
     public String getDisplayName() {
-        return getAID().getLocalName().split("@")[0];
+        return getSelf().getLocalName().split("@")[0];
     }
-
+    
+    /** Retrieves the identifier of the agent, in a container or not */
+    public AID getSelf() {
+        return headlessAID != null ? headlessAID : getAID();
+    }
+    
+    public NegotiateBehaviour getNegotiateBehaviour() {
+        return negotiateBehaviour;
+    }
+    
+    public boolean isFinished() {
+        return finished;
+    }
+    
+    public void setOutput(Consumer<String> outputIn) {
+        output = outputIn;
+    }
+    
+    public MessageCodec getCodec() {
+        return codec;
+    }
+    
+    public ActivityCounters getActivityCounters() {
+        return activityCounters;
+    }
+    
     public NegotiationGraph getGraph() {
-        return graph;
+        return session.getGraph();
     }
-
+    
     public Preferences getPreferences() {
         return preferences;
     }
@@ -0,0 +1,79 @@
+package centralesupelec.engine.agents;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/** A histogram of latencies in nanoseconds, recorded by agents on any thread without taking a lock.
+ * Values are counted in logarithmic buckets: each power of two is split in 32 buckets, so that percentiles are known within about 3%
+ * whatever the magnitude of the latencies, with a fixed memory footprint.
+ *
+ * @author Thomas Lamson
+ */
+public class LatencyHistogram {
+    /** Number of buckets each power of two is split in, as a power of two */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    
+    /** Number of values recorded in each bucket. Values below SUB_BUCKETS have their own bucket */
+    private AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * (64 - SUB_BUCKET_BITS));
+    
+    private LongAccumulator max = new LongAccumulator(Math::max, 0);
+    
+    /** Records a latency. Negative latencies are recorded as 0 */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        max.accumulate(value);
+    }
+    
+    /** Retrieves the number of recorded latencies */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+    
+    /** Retrieves the latency below which a given fraction of the recorded latencies are (between 0 and 1), as the upper bound of its bucket.
+     * Returns 0 if no latency was recorded */
+    public long getPercentile(double fraction) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+    
+    public long getMax() {
+        return max.get();
+    }
+    
+    /** Finds the bucket of a positive value: the power of two below it, then the next SUB_BUCKET_BITS bits */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+    
+    /** Retrieves the greatest value counted in a bucket */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -3,13 +3,17 @@ package centralesupelec.engine.agents;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.function.Consumer;
 
 import centralesupelec.engine.argumentation.Item;
 import jade.core.AID;
 import jade.core.Agent;
+import jade.lang.acl.ACLMessage;
 
-/** A agent managing the negotiation between engineer agents
+/** A agent managing the negotiation between engineer agents.
+ * The agent usually runs in a JADE container, but can also be driven without one (see setupHeadless).
  *
  * @author Thomas Lamson
  */
@@ -21,19 +25,65 @@ public class ManagerAgent extends Agent {
     /** Items that we already selected, in order of their selection */
     private ArrayList<Item> selectedItems = new ArrayList<>();
     
-    /** References to the engineer agents negotiating */
-    private AID[] engineers = {new AID("engineer1", AID.ISLOCALNAME), new AID("engineer2", AID.ISLOCALNAME)};
+    /** Full catalog, as sent in the first broadcast. The position of an item identifies it in catalog deltas */
+    private ArrayList<Item> catalog = new ArrayList<>();
+    /** Catalog indices of the items selected since the last broadcast */
+    private ArrayList<Integer> removedIndices = new ArrayList<>();
+    /** Version of the last broadcast catalog, 0 before the first broadcast */
+    private int catalogVersion = 0;
+    /** Number of negotiation cycles after which the agent stops even if items remain, 0 for no limit */
+    private int maxCycles = 0;
     
-    /** Starts and initializes the agent */
+    /** Prefix of the local names of the engineer agents, numbered from 1 */
+    public static final String ENGINEER_PREFIX = "engineer";
+    /** Number of engineer agents negotiating when not given at setup */
+    public static final int DEFAULT_ENGINEER_COUNT = 2;
+    
+    /** References to the engineer agents negotiating, the panel receiving the catalog */
+    private AID[] engineers;
+    
+    /** Encoding of the messages exchanged with the engineers */
+    private MessageCodec codec = new MessageCodec();
+    
+    /** Activity of the agent's behaviour, printed when the agent stops */
+    private ActivityCounters activityCounters = new ActivityCounters();
+    
+    /** The behaviour handling message exchanges, added at setup */
+    private ManagerBehaviour managerBehaviour;
+    
+    /** Draws the engineer starting each negotiation cycle, from a seed when one is given at setup */
+    private Random random = new Random();
+    
+    /** Identifier of the agent when it runs without a JADE container, null in a container */
+    private AID headlessAID;
+    /** Delivers the messages of the agent when it runs without a JADE container, null in a container */
+    private MessageTransport transport;
+    /** Receives every line the agent prints: its part of the negotiation transcript */
+    private Consumer<String> output = System.out::println;
+    /** Did the agent stop, once all items were selected or the maximal number of cycles was reached? Read from other threads */
+    private volatile boolean finished = false;
+    
+    /** Starts and initializes the agent.
+     * Arguments are the item list (a file path, or an already parsed list of items), the optional number of engineers,
+     * the optional seed choosing the engineer that starts each negotiation cycle and the optional maximal number of cycles. */
     protected void setup() {
         // Printout a welcome message
-        System.out.println("Hello! Manager-agent " + getAID().getName() + " is ready.");
+        log("Hello! Manager-agent " + getSelf().getName() + " is ready.");
+        
+        // All the messages of this negotiation belong to the same conversation
+        codec.beginConversation(getSelf().getLocalName() + "-" + System.currentTimeMillis());
         
         // Parsing arguments
         Object[] args = getArguments();
         if (args == null || args.length == 0) {
-            System.out.println("Didn't receive an item list path at setup. Shutting down...");
-            doDelete();
+            log("Didn't receive an item list path at setup. Shutting down...");
+            terminate();
+        } else if (args[0] instanceof ArrayList<?>) {
+            
+            // We received the items already parsed
+            for (Object item : (ArrayList<?>) args[0]) {
+                items.add((Item) item);
+            }
         } else {
             
             // Parsing items in file
@@ -50,21 +100,55 @@ public class ManagerAgent extends Agent {
                 
                 scanner.close();
             } catch(FileNotFoundException e) {
-                System.out.println("Item list file was not found. Shutting down...");
-                doDelete();
+                log("Item list file was not found. Shutting down...");
+                terminate();
             }
         }
         
+        // The engineers are "engineer1" to "engineerN" on our platform, N being given as second argument
+        int engineerCount = args != null && args.length > 1 ? (Integer) args[1] : DEFAULT_ENGINEER_COUNT;
+        engineers = new AID[engineerCount];
+        for (int i = 0; i < engineerCount; i++) {
+            engineers[i] = new AID(AID.createGUID(ENGINEER_PREFIX + (i + 1), getSelf().getHap()), AID.ISGUID);
+        }
+        
+        if (args != null && args.length > 2 && args[2] != null) {
+            random = new Random((Long) args[2]);
+        }
+        if (args != null && args.length > 3 && args[3] != null) {
+            maxCycles = (Integer) args[3];
+        }
+        
+        catalog.addAll(items);
+        
         // Initializes the manager behavior that will handle message exchanges
-        addBehaviour(new ManagerBehaviour());
+        managerBehaviour = new ManagerBehaviour();
+        addBehaviour(managerBehaviour);
     }
     
     /** Selects a given item and remove it from the items to negotiate */
     public void selectItem(Item item) {
         selectedItems.add(item);
         items.remove(item);
+        removedIndices.add(catalog.indexOf(item));
     }
-
+    
+    /** Starts a new catalog broadcast: increments the catalog version and returns the catalog indices of the items removed since the previous one */
+    public int[] beginCatalogBroadcast() {
+        catalogVersion++;
+        int[] removed = new int[removedIndices.size()];
+        for (int i = 0; i < removed.length; i++) {
+            removed[i] = removedIndices.get(i);
+        }
+        removedIndices.clear();
+        return removed;
+    }
+    
+    /** Checks if as many negotiation cycles as the maximal number were begun, when there is one */
+    public boolean isCycleLimitReached() {
+        return maxCycles > 0 && catalogVersion >= maxCycles;
+    }
+    
     /** Tries to select an item through its name. Can fail but no warning */
     public void selectItemByName(String itemName) {
         for (Item item : items) {
@@ -75,13 +159,96 @@ public class ManagerAgent extends Agent {
         }
     }
     
+    /** Sets up the agent outside of a JADE container, with the same arguments as in a container (see setup).
+     * The agent is then identified by a given AID, sends its messages through a given transport and receives them through postMessage. */
+    public void setupHeadless(AID aid, MessageTransport transportIn, Object[] args) {
+        headlessAID = aid;
+        transport = transportIn;
+        setArguments(args);
+        setup();
+    }
+    
+    /** Sends a message to its receivers, through the transport when the agent runs without a JADE container */
+    public void sendMessage(ACLMessage msg) {
+        NegotiationProbe probe = NegotiationProbe.get();
+        if (probe != null) {
+            probe.messageSent(msg, getSelf());
+        }
+        if (transport == null) {
+            send(msg);
+        } else {
+            msg.setSender(headlessAID);
+            transport.send(msg);
+        }
+    }
+    
+    /** Prints a line of the negotiation transcript */
+    public void log(String line) {
+        output.accept(line);
+    }
+    
+    /** Stops the agent: deletes it from its container. Without a container, the agent is no longer activated (see isFinished) */
+    public void terminate() {
+        finished = true;
+        if (transport == null) {
+            doDelete();
+        }
+    }
+    
+    /** Stops the agent */
+    protected void takeDown() {
+        log("Manager-agent " + getSelf().getName() + " activity: " + activityCounters + ".");
+    }
+    
     // ------- GETTERS ------- // ------- SETTERS ------- //
     
     public ArrayList<Item> getItems() {
         return items;
     }
-
+    
+    /** Retrieves the items selected so far, in order of their selection */
+    public ArrayList<Item> getSelectedItems() {
+        return selectedItems;
+    }
+    
+    public ArrayList<Item> getCatalog() {
+        return catalog;
+    }
+    
+    public int getCatalogVersion() {
+        return catalogVersion;
+    }
+    
     public AID[] getEngineers() {
         return engineers;
     }
+    
+    public MessageCodec getCodec() {
+        return codec;
+    }
+    
+    public ActivityCounters getActivityCounters() {
+        return activityCounters;
+    }
+    
+    public Random getRandom() {
+        return random;
+    }
+    
+    /** Retrieves the identifier of the agent, in a container or not */
+    public AID getSelf() {
+        return headlessAID != null ? headlessAID : getAID();
+    }
+    
+    public ManagerBehaviour getManagerBehaviour() {
+        return managerBehaviour;
+    }
+    
+    public boolean isFinished() {
+        return finished;
+    }
+    
+    public void setOutput(Consumer<String> outputIn) {
+        output = outputIn;
+    }
 }
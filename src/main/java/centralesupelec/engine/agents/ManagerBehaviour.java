@@ -1,12 +1,13 @@
 package centralesupelec.engine.agents;
 
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.Optional;
 
 import centralesupelec.engine.argumentation.Item;
 import jade.core.AID;
 import jade.core.behaviours.CyclicBehaviour;
 import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
 
 /** The behavior handling the messages that manage a negotiation protocol
  *
@@ -15,65 +16,204 @@ import jade.lang.acl.ACLMessage;
 public class ManagerBehaviour extends CyclicBehaviour {
     private static final long serialVersionUID = 1L;
     
+    /** Ontologies of the catalog broadcasts: the full catalog is only sent once, then only the items removed from it */
+    public static final String CATALOG_ONTOLOGY = "catalog";
+    public static final String CATALOG_DELTA_ONTOLOGY = "catalog-delta";
+    /** Ontology of the last message to the engineers, telling them that no cycle will follow so that they can forget the negotiation */
+    public static final String END_ONTOLOGY = "negotiation-end";
+    
+    /** User-defined parameter giving the version of the catalog after a broadcast. A delta applies to the previous version */
+    public static final String CATALOG_VERSION_PARAMETER = "X-Catalog-Version";
+    
+    /** Messages sent by the engineers to the manager: the TAKE and CANCEL orders */
+    private static final MessageTemplate ORDER_TEMPLATE = MessageTemplate.or(MessageTemplate.MatchPerformative(ACLMessage.INFORM_REF),
+                                                                             MessageTemplate.MatchPerformative(ACLMessage.CANCEL));
+    
     /** Should we start a new negotiation on next step? */
     private boolean beginNegotiation = true;
     
+    /** Begins the negotiations and handles every queued order, then blocks until a new message arrives */
     public void action() {
         ManagerAgent managerAgent = (ManagerAgent) myAgent;
-        ACLMessage msg = myAgent.receive();
+        managerAgent.getActivityCounters().beginActivation();
+        int events = 0;
         
-        if (beginNegotiation) {
-            
-            // Checking that there are still items to negotiate with
-            if (managerAgent.getItems().size() == 0) {
-                System.out.println("ALL ITEMS WERE SELECTED.");
-                myAgent.doDelete();
-                return;
+        while (true) {
+            if (beginNegotiation) {
+                
+                // Checking that there are still items to negotiate with
+                if (managerAgent.getItems().size() == 0) {
+                    managerAgent.log("ALL ITEMS WERE SELECTED.");
+                    endNegotiation();
+                    managerAgent.getActivityCounters().endActivation(events);
+                    managerAgent.terminate();
+                    return;
+                }
+                if (managerAgent.isCycleLimitReached()) {
+                    managerAgent.log("CYCLE LIMIT WAS REACHED.");
+                    endNegotiation();
+                    managerAgent.getActivityCounters().endActivation(events);
+                    managerAgent.terminate();
+                    return;
+                }
+                
+                beginNegotiation();
+                events++;
             }
             
-            beginNegotiation = false;
-            
-            // Send the remaining items to all engineer agents
-            msg = new ACLMessage(ACLMessage.INFORM_REF);
-            for (AID aid : managerAgent.getEngineers()) {
-                msg.addReceiver(aid);
+            ACLMessage msg = myAgent.receive(ORDER_TEMPLATE);
+            if (msg == null) {
+                break;
             }
-            msg.setContent(buildItemsString(managerAgent.getItems()));
-            System.out.println("------------------------------\nManager: beginning of cycle - sending items.");
-            myAgent.send(msg);
-            
-            // Send a request to a randomly selected engineer agent to make it start the negotiations
-            msg = new ACLMessage(ACLMessage.QUERY_REF);
-            AID receiver = managerAgent.getEngineers()[new Random().nextInt(managerAgent.getEngineers().length)];
-            msg.addReceiver(receiver);
-            msg.setContent("");
-            System.out.println("Manager: sending query to " + receiver.getLocalName() + ".");
-            myAgent.send(msg);
-            
-        } else if (msg != null) {
-            
-            // Receiving a message
-            String content = msg.getContent();
-            int performative = msg.getPerformative();
+            handleOrder(msg);
+            events++;
+        }
+        
+        managerAgent.getActivityCounters().endActivation(events);
+        block();
+    }
+    
+    /** Sends the remaining items to the engineers and asks one of them to start the negotiation */
+    private void beginNegotiation() {
+        ManagerAgent managerAgent = (ManagerAgent) myAgent;
+        beginNegotiation = false;
+        
+        // Send the remaining items to all engineer agents: the full catalog on the first cycle, then the items removed since the previous cycle
+        ACLMessage msg = new ACLMessage(ACLMessage.INFORM_REF);
+        for (AID aid : managerAgent.getEngineers()) {
+            msg.addReceiver(aid);
+        }
+        int[] removedIndices = managerAgent.beginCatalogBroadcast();
+        msg.addUserDefinedParameter(CATALOG_VERSION_PARAMETER, Integer.toString(managerAgent.getCatalogVersion()));
+        
+        // The catalog is sent in binary once all engineers advertised it (see MessageCodec)
+        managerAgent.getCodec().prepare(msg);
+        boolean binary = managerAgent.getCodec().canEncode(msg);
+        if (managerAgent.getCatalogVersion() == 1) {
+            msg.setOntology(CATALOG_ONTOLOGY);
+            if (binary) {
+                MessageCodec.setBinaryContent(msg, MessageCodec.encodeCatalog(managerAgent.getCatalog()));
+            } else {
+                msg.setContent(buildItemsString(managerAgent.getCatalog()));
+            }
+        } else {
+            msg.setOntology(CATALOG_DELTA_ONTOLOGY);
+            if (binary) {
+                MessageCodec.setBinaryContent(msg, MessageCodec.encodeCatalogDelta(removedIndices));
+            } else {
+                msg.setContent(buildDeltaString(removedIndices));
+            }
+        }
+        managerAgent.log("------------------------------\nManager: beginning of cycle - sending items.");
+        managerAgent.sendMessage(msg);
+        
+        // Send a request to a randomly selected engineer agent to make it start the negotiations
+        msg = new ACLMessage(ACLMessage.QUERY_REF);
+        AID receiver = managerAgent.getEngineers()[managerAgent.getRandom().nextInt(managerAgent.getEngineers().length)];
+        msg.addReceiver(receiver);
+        managerAgent.getCodec().prepare(msg);
+        msg.setContent("");
+        managerAgent.log("Manager: sending query to " + receiver.getLocalName() + ".");
+        managerAgent.sendMessage(msg);
+    }
+    
+    /** Tells the engineers that the negotiation is over, so that they end its session */
+    private void endNegotiation() {
+        ManagerAgent managerAgent = (ManagerAgent) myAgent;
+        ACLMessage msg = new ACLMessage(ACLMessage.INFORM_REF);
+        for (AID aid : managerAgent.getEngineers()) {
+            msg.addReceiver(aid);
+        }
+        msg.setOntology(END_ONTOLOGY);
+        managerAgent.getCodec().prepare(msg);
+        msg.setContent("");
+        managerAgent.sendMessage(msg);
+    }
+    
+    /** Handles a TAKE or CANCEL order sent by an engineer */
+    private void handleOrder(ACLMessage msg) {
+        ManagerAgent managerAgent = (ManagerAgent) myAgent;
+        
+        // Receiving a message, and remembering if the sender can read binary contents
+        managerAgent.getCodec().registerReceived(msg);
+        String content = msg.getContent();
+        int performative = msg.getPerformative();
+        NegotiationProbe probe = NegotiationProbe.get();
+        if (probe != null) {
+            probe.messageReceived(msg, managerAgent.getSelf());
+        }
+        
+        // If message is a TAKE order, negotiation concluded on a item. We can select it.
+        if (performative == ACLMessage.INFORM_REF) {
+            managerAgent.log("Manager: end of cycle - selected item: " + content + "\n------------------------------\n");
             
-            // If message is a TAKE order, negotiation concluded on a item. We can select it.
-            if (performative == ACLMessage.INFORM_REF) {
-                System.out.println("Manager: end of cycle - selected item: " + content + "\n------------------------------\n");
-                
-                managerAgent.selectItemByName(content);
-                beginNegotiation = true;
-                
-            // If message is a CANCEL order, negotiation couldn't conclude. We stop the process.
-            } else if (performative == ACLMessage.CANCEL) {
-                System.out.println("NEGOTIATION WAS CANCELLED.");
+            managerAgent.selectItemByName(content);
+            beginNegotiation = true;
+            if (probe != null) {
+                probe.agreementReached();
+            }
+        
+        // If message is a CANCEL order, negotiation couldn't conclude. We stop the process.
+        } else if (performative == ACLMessage.CANCEL) {
+            managerAgent.log("NEGOTIATION WAS CANCELLED.");
+            if (probe != null) {
+                probe.negotiationCancelled();
             }
         }
     }
     
     private String buildItemsString(ArrayList<Item> items) {
-        String result = "";
-        for(Item item : items)
-            result += item.toString() + "|";
-        return result.substring(0, result.length() - 1);
+        StringBuilder result = new StringBuilder();
+        for (Item item : items) {
+            if (result.length() > 0)
+                result.append('|');
+            result.append(item.getName()).append(';').append(item.getDescription());
+        }
+        return result.toString();
+    }
+    
+    /** Builds the text content of a catalog delta: the removed catalog indices, separated by commas */
+    private String buildDeltaString(int[] removedIndices) {
+        StringBuilder result = new StringBuilder();
+        for (int index : removedIndices) {
+            if (result.length() > 0)
+                result.append(',');
+            result.append(index);
+        }
+        return result.toString();
+    }
+    
+    /** Parses the text content of a catalog delta. Returns an empty Optional if not valid */
+    public static Optional<int[]> parseDeltaString(String content) {
+        int count = content.isEmpty() ? 0 : 1;
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == ',')
+                count++;
+        }
+        
+        int[] removedIndices = new int[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = content.indexOf(',', start);
+            if (end < 0) {
+                end = content.length();
+            }
+            
+            // Reading the index in place
+            if (end == start || end - start > 9) {
+                return Optional.empty();
+            }
+            int index = 0;
+            for (int c = start; c < end; c++) {
+                int digit = content.charAt(c) - '0';
+                if (digit < 0 || digit > 9) {
+                    return Optional.empty();
+                }
+                index = index * 10 + digit;
+            }
+            removedIndices[i] = index;
+            start = end + 1;
+        }
+        return Optional.of(removedIndices);
     }
 }
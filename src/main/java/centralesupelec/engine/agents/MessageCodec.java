@@ -0,0 +1,314 @@
+package centralesupelec.engine.agents;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import centralesupelec.engine.argumentation.Argument;
+import centralesupelec.engine.argumentation.EnumCriterion;
+import centralesupelec.engine.argumentation.EnumValue;
+import centralesupelec.engine.argumentation.Item;
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+
+/** Compact binary encoding of the contents of negotiation messages (proposals, accepts, arguments, catalogs and catalog deltas).
+ * Items are identified by their index in the catalog sent by the manager, criteria and values by their ordinals.
+ * Each agent has its own codec: when binary encoding is enabled, the codec advertises it on every message sent, and a message
+ * is only encoded once all its receivers advertised it in the same conversation, so agents only speaking text still interoperate.
+ * Binary messages are recognized by their content language.
+ *
+ * @author Thomas Lamson
+ */
+public class MessageCodec {
+    /** Content language of binary messages */
+    public static final String BINARY_LANGUAGE = "negotiation-binary";
+    
+    /** User-defined parameter advertising the content languages an agent can read */
+    public static final String ACCEPT_LANGUAGE_PARAMETER = "X-Accept-Language";
+    
+    /** Flag of a binary argument telling that it supports its item */
+    private static final int PRO_FLAG = 1;
+    
+    /** Flag of a binary argument telling that it has a criterion preference premise */
+    private static final int CRITERION_PREMISE_FLAG = 2;
+    
+    /** Is binary encoding enabled for the codecs created from now on? */
+    private static volatile boolean binaryEnabled = false;
+    
+    /** Is binary encoding enabled for this codec? */
+    private boolean enabled;
+    
+    /** Identifier of the current conversation, set on every message sent */
+    private String conversationId = "";
+    
+    /** Agents that advertised binary encoding, by conversation */
+    private HashMap<String, HashSet<AID>> binaryPeers = new HashMap<>();
+    
+    public MessageCodec() {
+        enabled = binaryEnabled;
+    }
+    
+    /** Begins a new conversation, forgetting what was advertised in previous ones */
+    public void beginConversation(String conversationIdIn) {
+        conversationId = conversationIdIn == null ? "" : conversationIdIn;
+        binaryPeers.keySet().removeIf(id -> !id.equals(conversationId));
+    }
+    
+    /** Switches to another conversation, keeping what was advertised in the others. Used by agents taking part in several conversations */
+    public void switchConversation(String conversationIdIn) {
+        conversationId = conversationIdIn == null ? "" : conversationIdIn;
+    }
+    
+    /** Forgets what was advertised in a conversation that is over */
+    public void endConversation(String conversationIdIn) {
+        binaryPeers.remove(conversationIdIn == null ? "" : conversationIdIn);
+    }
+    
+    /** Registers the content languages advertised by the sender of a received message */
+    public void registerReceived(ACLMessage msg) {
+        if (BINARY_LANGUAGE.equals(msg.getUserDefinedParameter(ACCEPT_LANGUAGE_PARAMETER)) && msg.getSender() != null) {
+            String id = msg.getConversationId() == null ? "" : msg.getConversationId();
+            binaryPeers.computeIfAbsent(id, k -> new HashSet<>()).add(msg.getSender());
+        }
+    }
+    
+    /** Prepares a message to send: sets the current conversation and advertises binary encoding if enabled */
+    public void prepare(ACLMessage msg) {
+        msg.setConversationId(conversationId);
+        if (enabled) {
+            msg.addUserDefinedParameter(ACCEPT_LANGUAGE_PARAMETER, BINARY_LANGUAGE);
+        }
+    }
+    
+    /** Checks if a prepared message can be encoded in binary: every receiver must have advertised it in the current conversation */
+    public boolean canEncode(ACLMessage msg) {
+        HashSet<AID> peers = binaryPeers.get(conversationId);
+        if (!enabled || peers == null) {
+            return false;
+        }
+        
+        Iterator<?> receivers = msg.getAllReceiver();
+        while (receivers.hasNext()) {
+            if (!peers.contains(receivers.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /** Checks if a received message has a binary content */
+    public static boolean isBinary(ACLMessage msg) {
+        return BINARY_LANGUAGE.equals(msg.getLanguage());
+    }
+    
+    /** Sets the binary content of a message */
+    public static void setBinaryContent(ACLMessage msg, byte[] content) {
+        msg.setLanguage(BINARY_LANGUAGE);
+        msg.setByteSequenceContent(content);
+    }
+    
+    /** Encodes a reference to an item of the agent's catalog */
+    public static byte[] encodeItem(Item item, EngineerAgent agent) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(2);
+        writeIndex(bytes, agent.getItemIndex(item));
+        return bytes.toByteArray();
+    }
+    
+    /** Decodes a reference to an item of the agent's catalog. Returns an empty Optional if not valid */
+    public static Optional<Item> decodeItem(byte[] content, EngineerAgent agent) {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+        int index = readIndex(bytes);
+        if (index < 0 || bytes.available() > 0) {
+            return Optional.empty();
+        }
+        return agent.getItemByIndex(index);
+    }
+    
+    /** Encodes an argument: item index, flags, value premise and optional criterion premise */
+    public static byte[] encodeArgument(Argument argument, EngineerAgent agent) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(6);
+        writeIndex(bytes, agent.getItemIndex(argument.getItem()));
+        
+        Argument.CriterionPreference criterionPremise = argument.getCriterionPremise();
+        bytes.write((argument.isPro() ? PRO_FLAG : 0) | (criterionPremise != null ? CRITERION_PREMISE_FLAG : 0));
+        bytes.write(argument.getValuePremise().getCriterion().ordinal());
+        bytes.write(argument.getValuePremise().getValue().ordinal());
+        if (criterionPremise != null) {
+            bytes.write(criterionPremise.getSuperiorCriterion().ordinal());
+            bytes.write(criterionPremise.getInferiorCriterion().ordinal());
+        }
+        return bytes.toByteArray();
+    }
+    
+    /** Decodes an argument about an item of the agent's catalog. Returns an empty Optional if not valid */
+    public static Optional<Argument> decodeArgument(byte[] content, EngineerAgent agent) {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+        
+        // CHECK: the item is known
+        int index = readIndex(bytes);
+        Optional<Item> item = index < 0 ? Optional.empty() : agent.getItemByIndex(index);
+        if (!item.isPresent()) {
+            return Optional.empty();
+        }
+        
+        int flags = bytes.read();
+        Optional<EnumCriterion> criterion = criterionAt(bytes.read());
+        Optional<EnumValue> value = valueAt(bytes.read());
+        
+        // CHECK: flags, criterion and value are recognized
+        if (flags < 0 || !criterion.isPresent() || !value.isPresent()) {
+            return Optional.empty();
+        }
+        
+        Argument argument = new Argument(item.get(), (flags & PRO_FLAG) != 0);
+        argument.addValuePremise(criterion.get(), value.get());
+        
+        if ((flags & CRITERION_PREMISE_FLAG) != 0) {
+            Optional<EnumCriterion> superiorCriterion = criterionAt(bytes.read());
+            Optional<EnumCriterion> inferiorCriterion = criterionAt(bytes.read());
+            
+            // CHECK: superior and inferior criteria are recognized
+            if (!superiorCriterion.isPresent() || !inferiorCriterion.isPresent()) {
+                return Optional.empty();
+            }
+            argument.addCriterionPreference(superiorCriterion.get(), inferiorCriterion.get());
+        }
+        
+        // CHECK: there is nothing after the premises
+        return bytes.available() == 0 ? Optional.of(argument) : Optional.empty();
+    }
+    
+    /** Encodes a catalog: number of items, then the name and description of each item. The position of an item is its index */
+    public static byte[] encodeCatalog(List<Item> items) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeIndex(bytes, items.size());
+        
+        DataOutputStream data = new DataOutputStream(bytes);
+        try {
+            for (Item item : items) {
+                data.writeUTF(item.getName());
+                data.writeUTF(item.getDescription());
+            }
+            data.flush();
+        } catch (IOException e) {
+            // Cannot happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /** Decodes a catalog. Returns an empty Optional if not valid */
+    public static Optional<ArrayList<Item>> decodeCatalog(byte[] content) {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+        int count = readIndex(bytes);
+        if (count < 0) {
+            return Optional.empty();
+        }
+        
+        ArrayList<Item> items = new ArrayList<>(Math.min(count, content.length));
+        DataInputStream data = new DataInputStream(bytes);
+        try {
+            for (int i = 0; i < count; i++) {
+                items.add(Item.of(data.readUTF(), data.readUTF()));
+            }
+        } catch (IOException e) {
+            // ERROR: Truncated catalog
+            return Optional.empty();
+        }
+        return bytes.available() == 0 ? Optional.of(items) : Optional.empty();
+    }
+    
+    /** Encodes a catalog delta: number of removed items, then their catalog indices */
+    public static byte[] encodeCatalogDelta(int[] removedIndices) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 + 2 * removedIndices.length);
+        writeIndex(bytes, removedIndices.length);
+        for (int index : removedIndices) {
+            writeIndex(bytes, index);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /** Decodes a catalog delta. Returns an empty Optional if not valid */
+    public static Optional<int[]> decodeCatalogDelta(byte[] content) {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+        int count = readIndex(bytes);
+        if (count < 0 || count > content.length) {
+            return Optional.empty();
+        }
+        
+        int[] removedIndices = new int[count];
+        for (int i = 0; i < count; i++) {
+            removedIndices[i] = readIndex(bytes);
+            if (removedIndices[i] < 0) {
+                return Optional.empty();
+            }
+        }
+        return bytes.available() == 0 ? Optional.of(removedIndices) : Optional.empty();
+    }
+    
+    /** Writes a non-negative integer on as few bytes as possible, 7 bits at a time */
+    private static void writeIndex(ByteArrayOutputStream bytes, int index) {
+        while ((index & ~0x7F) != 0) {
+            bytes.write((index & 0x7F) | 0x80);
+            index >>>= 7;
+        }
+        bytes.write(index);
+    }
+    
+    /** Reads an integer written by writeIndex. Returns -1 if not valid */
+    private static int readIndex(ByteArrayInputStream bytes) {
+        int index = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = bytes.read();
+            if (b < 0) {
+                return -1;
+            }
+            index |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+    
+    private static Optional<EnumCriterion> criterionAt(int ordinal) {
+        EnumCriterion[] criteria = EnumCriterion.values();
+        return ordinal >= 0 && ordinal < criteria.length ? Optional.of(criteria[ordinal]) : Optional.empty();
+    }
+    
+    private static Optional<EnumValue> valueAt(int ordinal) {
+        EnumValue[] values = EnumValue.values();
+        return ordinal >= 0 && ordinal < values.length ? Optional.of(values[ordinal]) : Optional.empty();
+    }
+    
+    // ------- GETTERS ------- // ------- SETTERS ------- //
+    
+    public String getConversationId() {
+        return conversationId;
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    public void setEnabled(boolean enabledIn) {
+        enabled = enabledIn;
+    }
+    
+    public static boolean isBinaryEnabled() {
+        return binaryEnabled;
+    }
+    
+    /** Enables or disables binary encoding for the codecs created from now on */
+    public static void setBinaryEnabled(boolean binaryEnabledIn) {
+        binaryEnabled = binaryEnabledIn;
+    }
+}
@@ -0,0 +1,13 @@
+package centralesupelec.engine.agents;
+
+import jade.lang.acl.ACLMessage;
+
+/** Delivers the messages of agents running outside of a JADE container (see EngineerAgent.setupHeadless and ManagerAgent.setupHeadless).
+ * The sender of a message is always set when it is handed to the transport.
+ *
+ * @author Thomas Lamson
+ */
+public interface MessageTransport {
+    /** Delivers a message to all its receivers */
+    void send(ACLMessage msg);
+}
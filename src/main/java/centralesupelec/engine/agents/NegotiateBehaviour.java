@@ -1,27 +1,112 @@
 package centralesupelec.engine.agents;
 
+import jade.core.AID;
 import jade.core.behaviours.CyclicBehaviour;
 import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import centralesupelec.engine.argumentation.Argument;
 import centralesupelec.engine.argumentation.Item;
 import centralesupelec.engine.state_machine.State;
 import centralesupelec.engine.state_machine.actions.Action;
 
-/** The behavior handling the messages that an EngineerAgent sends and receives during a negotiation protocol
+/** The behavior handling the messages that an EngineerAgent sends and receives during a negotiation protocol.
+ * Each message is handled in the session of its conversation (see NegotiationSession), so one agent can take part in many negotiations
  *
  * @author Thomas Lamson
  */
 public class NegotiateBehaviour extends CyclicBehaviour {
     private static final long serialVersionUID = 1L;
     
+    /** User-defined parameter numbering the messages multicast to the panel since the catalog broadcast.
+     * The platform doesn't order messages from different senders, so the other engineers use it to handle them in order */
+    public static final String MOVE_PARAMETER = "X-Move";
+    
+    /** Maximal number of transitions performed in one activation, so that other behaviours of the agent still get scheduled */
+    private static final int MAX_TRANSITIONS_PER_ACTIVATION = 64;
+    
+    /** Outcomes of a message that we only take into account, without answering it */
+    private static final State[] NO_OUTCOMES = new State[0];
+    
+    /** Messages with a performative handled by the protocol, built on first activation */
+    private MessageTemplate handledTemplate;
+    
+    /** Maximal number of conversations without a session whose messages are kept until their catalog arrives. The oldest one is dropped beyond it */
+    private static final int MAX_PENDING_CONVERSATIONS = 64;
+    
+    /** Maximal number of ended conversations remembered, so that their late messages are dropped. The oldest one is forgotten beyond it */
+    private static final int MAX_ENDED_CONVERSATIONS = 1024;
+    
+    /** Sessions with deferred messages (see NegotiationSession.deferMessage), the only ones whose messages are checked again */
+    private LinkedHashSet<NegotiationSession> deferringSessions = new LinkedHashSet<>();
+    
+    /** Messages of conversations we have no session for yet, by conversation id, in reception order.
+     * Only a catalog creates a session, so that messages of unknown or forgotten conversations don't */
+    private LinkedHashMap<String, ArrayList<ACLMessage>> pendingMessages = new LinkedHashMap<String, ArrayList<ACLMessage>>() {
+        private static final long serialVersionUID = 1L;
+        
+        protected boolean removeEldestEntry(Map.Entry<String, ArrayList<ACLMessage>> eldest) {
+            return size() > MAX_PENDING_CONVERSATIONS;
+        }
+    };
+    
+    /** Conversations whose negotiation concluded and whose session was ended, from the oldest to the most recent (see endConversation) */
+    private Set<String> endedConversations = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        private static final long serialVersionUID = 1L;
+        
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_ENDED_CONVERSATIONS;
+        }
+    });
+    
+    /** Performs every transition available: chained direct transitions and queued messages.
+     * The behaviour is then blocked until a new message arrives, instead of being polled continuously. */
     public void action() {
+        EngineerAgent engineerAgent = (EngineerAgent) myAgent;
+        if (handledTemplate == null) {
+            handledTemplate = buildTemplate(engineerAgent.getStateMachine().getProtocol().getHandledPerformatives());
+        }
+        
+        engineerAgent.getActivityCounters().beginActivation();
+        int events = 0;
+        
+        // Messages that no state of the protocol handles would be ignored anyway
+        while (myAgent.receive(MessageTemplate.not(handledTemplate)) != null) {
+            events++;
+        }
+        
+        int transitions = 0;
+        while (transitions < MAX_TRANSITIONS_PER_ACTIVATION && step(engineerAgent)) {
+            transitions++;
+        }
+        events += transitions;
+        engineerAgent.getActivityCounters().endActivation(events);
+        
+        // When the limit is reached, there may still be work to do and we are scheduled again right away
+        if (transitions < MAX_TRANSITIONS_PER_ACTIVATION) {
+            block();
+        }
+    }
+    
+    /** Handles one direct transition or one received message. Returns false if there was nothing to do */
+    private boolean step(EngineerAgent engineerAgent) {
         boolean encounteredError = false;
+        boolean progressed = false;
+        boolean concluded = false;
+        AID sender = null;
+        String inReplyTo = null;
+        NegotiationProbe probe = NegotiationProbe.get();
         
         // Preparing some variables and remembering current state
-        EngineerAgent engineerAgent = (EngineerAgent) myAgent;
         String name = engineerAgent.getDisplayName();
         State prevState = engineerAgent.getStateMachine().getState();
         
@@ -30,46 +115,91 @@ public class NegotiateBehaviour extends CyclicBehaviour {
         if (nextStates.length == 0) {
             
             // If there is no direct outcome, we can safely retrieve the message from the stack
-            ACLMessage msg = myAgent.receive();
+            ACLMessage msg = nextMessage(engineerAgent);
             
-            // If there is such message, handle the reception
+            // If there is such message, handle the reception in the session of its conversation
             if (msg != null) {
-                String content = msg.getContent();
+                progressed = true;
+                engineerAgent.selectSession(msg.getConversationId());
+                prevState = engineerAgent.getStateMachine().getState();
+                sender = msg.getSender();
+                inReplyTo = msg.getReplyWith();
                 int performative = msg.getPerformative();
+                if (probe != null) {
+                    probe.messageReceived(msg, engineerAgent.getSelf());
+                }
+                
+                // Binary contents are only sent to us if we advertised it in the current conversation (see MessageCodec)
+                boolean binary = MessageCodec.isBinary(msg);
+                byte[] bytes = binary ? msg.getByteSequenceContent() : null;
+                String content = binary ? null : msg.getContent();
                 
                 // The received message's performative tells us what are the next possible transitions for our agent
                 nextStates = engineerAgent.getStateMachine().getOutcomes(performative);
                 
+                // Remembering if the sender can read binary contents
+                engineerAgent.getCodec().registerReceived(msg);
+                
+                
+                // HANDLING: Received the end of the negotiation from manager
+                //      - no cycle will follow, so we end the session once the message is handled
+                if (isEnd(msg)) {
+                    nextStates = NO_OUTCOMES;
+                    concluded = true;
+                
                 
                 // HANDLING: Received items data from manager
-                //      - we register the new items to negotiate with
+                //      - we register the new items to negotiate with, or remove the items that were selected since the previous catalog
                 //      - we reset the negotiation graph for a new round
-                if (prevState == State.WAIT && performative == ACLMessage.INFORM_REF) {
-                    engineerAgent.setItems(Item.parseItems(content));
+                //      - we remember the engineers of the panel, the receivers of the catalog
+                } else if (prevState == State.WAIT && isCatalog(msg)) {
+                    engineerAgent.setPanel(msg);
+                    engineerAgent.getSession().setLastMove(0);
+                    engineerAgent.getSession().registerMove(false);
+                    int version = parseCatalogVersion(msg.getUserDefinedParameter(ManagerBehaviour.CATALOG_VERSION_PARAMETER));
+                    if (ManagerBehaviour.CATALOG_DELTA_ONTOLOGY.equals(msg.getOntology())) {
+                        Optional<int[]> removedIndices = binary ? MessageCodec.decodeCatalogDelta(bytes) : ManagerBehaviour.parseDeltaString(content);
+                        if (!removedIndices.isPresent() || !engineerAgent.applyCatalogDelta(version, removedIndices.get())) {
+                            encounteredError = true;
+                            engineerAgent.log(name + ": cannot apply catalog delta.");
+                        }
+                    } else {
+                        Optional<ArrayList<Item>> items = binary ? MessageCodec.decodeCatalog(bytes) : Optional.of(Item.parseItems(content));
+                        if (items.isPresent()) {
+                            engineerAgent.setItems(items.get());
+                            engineerAgent.setCatalogVersion(version);
+                        } else {
+                            encounteredError = true;
+                        }
+                    }
                     engineerAgent.resetGraph();
                 
-                    
+                
                 // HANDLING: Received a new proposal
                 //      - we parse and validate the new proposal
                 //      - we register the proposal to the negotiation graph as an external proposal
                 //      - we remember the new current item
+                //      - we only answer it if we are the next engineer after the sender
                 } else if (performative == ACLMessage.PROPOSE) {
-                    Optional<Item> item = engineerAgent.getItemByName(content);
+                    Optional<Item> item = binary ? MessageCodec.decodeItem(bytes, engineerAgent) : engineerAgent.getItemByName(content);
                     if (item.isPresent()) {
                         engineerAgent.getGraph().receiveProposal(item.get());
-                        engineerAgent.currentItem = item.get();
+                        engineerAgent.setCurrentItem(item.get());
                     } else {
                         encounteredError = true;
                     }
+                    if (!engineerAgent.isNextAfter(sender)) {
+                        nextStates = NO_OUTCOMES;
+                    }
+                
                 
-                    
                 // HANDLING: Received a proposal accept message
                 //      - we parse and validate the accepted item
                 //      - we remember the new current item
                 } else if (performative == ACLMessage.ACCEPT_PROPOSAL) {
-                    Optional<Item> item = engineerAgent.getItemByName(content);
+                    Optional<Item> item = binary ? MessageCodec.decodeItem(bytes, engineerAgent) : engineerAgent.getItemByName(content);
                     if (item.isPresent()) {
-                        engineerAgent.currentItem = item.get();
+                        engineerAgent.setCurrentItem(item.get());
                     } else {
                         encounteredError = true;
                     }
@@ -79,30 +209,59 @@ public class NegotiateBehaviour extends CyclicBehaviour {
                 //      - we parse and validate the new argument
                 //      - we check that the argument can be added at a valid location in the graph
                 //      - we add it to the graph
+                //      - we only answer it if we are the next engineer after the sender
                 } else if (performative == ACLMessage.INFORM) {
-                    Optional<Argument> argument = Argument.parseArgument(content, engineerAgent);
+                    Optional<Argument> argument = binary ? MessageCodec.decodeArgument(bytes, engineerAgent) : Argument.parseArgument(content, engineerAgent);
                     if (argument.isPresent()) {
                         if (engineerAgent.getGraph().canAddArgument(argument.get())) {
                             engineerAgent.getGraph().addArgument(argument.get());
                         } else {
                             encounteredError = true;
-                            System.out.println(name + ": cannot add argument.");
+                            engineerAgent.log(name + ": cannot add argument.");
                         }
                     } else {
                         encounteredError = true;
                     }
+                    if (!engineerAgent.isNextAfter(sender)) {
+                        nextStates = NO_OUTCOMES;
+                    }
+                
+                
+                // HANDLING: Received a pass
+                //      - another engineer had nothing better than cancelling, and left the answer to the next one
+                //      - we only answer it if we are the next engineer after the sender
+                } else if (performative == ACLMessage.REFUSE) {
+                    if (!engineerAgent.isNextAfter(sender)) {
+                        nextStates = NO_OUTCOMES;
+                    }
+                
+                
+                // HANDLING: Received a commitment to the item we accepted
+                //      - we only take the item once every other engineer committed to it
+                } else if (prevState == State.COMMIT_TAKE && performative == ACLMessage.CONFIRM) {
+                    if (engineerAgent.registerConfirm() > 0) {
+                        nextStates = NO_OUTCOMES;
+                    }
+                
+                
+                // HANDLING: Received a cancellation
+                //      - the negotiation is over for the whole panel, so we end the session once the message is handled
+                } else if (performative == ACLMessage.CANCEL) {
+                    concluded = true;
                 }
             }
         }
         
         // If we ever encountered an error during message parsing, we can only transit to the CANCEL state
         if (encounteredError) {
-            System.out.println(name + ": encountered an error!");
+            engineerAgent.log(name + ": encountered an error!");
             nextStates = new State[] {State.CANCEL};
         }
         
         // If we can perform a transition (a message was received, or there exist a direct outcome to current state)
         if (nextStates.length > 0) {
+            progressed = true;
+            long decisionStart = probe != null ? System.nanoTime() : 0;
             
             // We evaluate the different transitions and select the best one through this call
             Action bestAction = State.chooseBetweenStates(engineerAgent, nextStates);
@@ -116,11 +275,17 @@ public class NegotiateBehaviour extends CyclicBehaviour {
             
             // Executing action (performing several tasks that depend on the type of action)
             bestAction.execute(engineerAgent);
-    
+            if (selectedState == State.COMMIT_TAKE) {
+                engineerAgent.setPendingConfirms(engineerAgent.getOtherEngineers().length);
+            }
+            if (probe != null) {
+                probe.decisionMade(selectedState, System.nanoTime() - decisionStart);
+            }
+            
             // Print the newly reached state, with the content of the message we're going to send
             // Note: we don't print if state is WAIT or WAIT_COMMIT for more clarity
             if (selectedState != State.WAIT && selectedState != State.WAIT_COMMIT) {
-                System.out.println(name + ": " + selectedState.getName() + (content.length() == 0 ? "" : ": ") + content);
+                engineerAgent.log(name + ": " + selectedState.getName() + (content.length() == 0 ? "" : ": ") + content);
             }
             
             // Print the negotiation graph of the agent whenever an ACCEPT state was reached
@@ -130,16 +295,196 @@ public class NegotiateBehaviour extends CyclicBehaviour {
             
             // If there is a message to sent when reaching new state, send it
             if (selectedState.getPerformative() != -1) {
+                // The message answers the message that triggered the transition, if any (see NegotiationProbe)
                 ACLMessage reply = new ACLMessage(selectedState.getPerformative());
-                reply.setContent(content);
+                reply.setInReplyTo(inReplyTo);
                 
-                if (selectedState.getSendEngineers())
-                    reply.addReceiver(engineerAgent.getOtherEngineer());
+                // Proposals and arguments are multicast to the whole panel, answers to a single engineer only go to it
+                if (selectedState.getSendEngineers()) {
+                    if (selectedState.getSendSenderOnly() && sender != null) {
+                        reply.addReceiver(sender);
+                    } else {
+                        for (AID engineer : engineerAgent.getOtherEngineers()) {
+                            reply.addReceiver(engineer);
+                        }
+                        reply.addUserDefinedParameter(ManagerBehaviour.CATALOG_VERSION_PARAMETER, Integer.toString(engineerAgent.getCatalogVersion()));
+                        reply.addUserDefinedParameter(MOVE_PARAMETER, Integer.toString(engineerAgent.getSession().nextMove()));
+                        engineerAgent.getSession().registerMove(selectedState == State.PASS);
+                    }
+                }
                 if (selectedState.getSendManager())
                     reply.addReceiver(engineerAgent.getManager());
                 
-                myAgent.send(reply);
+                // Sending the content in binary when all receivers can read it, and in text otherwise
+                MessageCodec codec = engineerAgent.getCodec();
+                codec.prepare(reply);
+                byte[] binaryContent = codec.canEncode(reply) ? bestAction.encodeContent(engineerAgent) : null;
+                if (binaryContent != null) {
+                    MessageCodec.setBinaryContent(reply, binaryContent);
+                } else {
+                    reply.setContent(content);
+                }
+                
+                engineerAgent.sendMessage(reply);
+            }
+            
+            // A CANCEL ends the negotiation for the whole panel
+            if (selectedState == State.CANCEL) {
+                concluded = true;
+            }
+        }
+        
+        if (concluded) {
+            endConversation(engineerAgent, engineerAgent.getSession().getConversationId());
+        }
+        
+        return progressed;
+    }
+    
+    /** Ends the session of a conversation whose negotiation concluded (see EngineerAgent.endSession).
+     * Its deferred messages are dropped with it, and so are the messages of the conversation that arrive later */
+    private void endConversation(EngineerAgent engineerAgent, String conversationId) {
+        NegotiationSession session = engineerAgent.findSession(conversationId);
+        if (session != null) {
+            deferringSessions.remove(session);
+            engineerAgent.endSession(conversationId);
+        }
+        pendingMessages.remove(conversationId);
+        endedConversations.add(conversationId);
+    }
+    
+    /** Retrieves the next message that can be handled, or null if there is none. Messages that can't be handled yet are deferred:
+     * moves of the panel received before a previous move, messages from the manager or from the next cycle while the current one is not over,
+     * and messages of a conversation whose catalog was not received yet */
+    private ACLMessage nextMessage(EngineerAgent engineerAgent) {
+        Iterator<NegotiationSession> sessions = deferringSessions.iterator();
+        while (sessions.hasNext()) {
+            NegotiationSession session = sessions.next();
+            ACLMessage msg = session.pollDeferredMessage(deferred -> canHandle(engineerAgent, deferred));
+            if (!session.hasDeferredMessages()) {
+                sessions.remove();
+            }
+            if (msg != null) {
+                return registerMove(engineerAgent, msg);
             }
         }
+        
+        ACLMessage msg = myAgent.receive(handledTemplate);
+        while (msg != null && !canHandle(engineerAgent, msg)) {
+            defer(engineerAgent, msg);
+            msg = myAgent.receive(handledTemplate);
+        }
+        return msg == null ? null : registerMove(engineerAgent, msg);
+    }
+    
+    /** Defers a message in the session of its conversation, or until its catalog arrives if there is none. Messages beyond the limits are dropped,
+     * as well as the messages of ended conversations */
+    private void defer(EngineerAgent engineerAgent, ACLMessage msg) {
+        NegotiationSession session = engineerAgent.findSession(msg.getConversationId());
+        boolean deferred;
+        if (session == null && (isEnd(msg) || endedConversations.contains(conversationOf(msg)))) {
+            pendingMessages.remove(conversationOf(msg));
+            return;
+        } else if (session != null) {
+            deferred = session.deferMessage(msg);
+            deferringSessions.add(session);
+        } else {
+            ArrayList<ACLMessage> pending = pendingMessages.computeIfAbsent(conversationOf(msg), key -> new ArrayList<>());
+            deferred = pending.size() < NegotiationSession.MAX_DEFERRED_MESSAGES && pending.add(msg);
+        }
+        if (!deferred) {
+            engineerAgent.log(engineerAgent.getDisplayName() + ": too many deferred messages in conversation \"" + conversationOf(msg) + "\", dropping one.");
+        }
+    }
+    
+    /** Checks if a message can be handled now in the session of its conversation, or must be deferred */
+    private boolean canHandle(EngineerAgent engineerAgent, ACLMessage msg) {
+        NegotiationSession session = engineerAgent.findSession(msg.getConversationId());
+        
+        // Only a catalog begins a new conversation, unless the conversation already ended
+        if (session == null) {
+            return isCatalog(msg) && !endedConversations.contains(conversationOf(msg));
+        }
+        
+        // Messages from the manager begin a new cycle, or end the negotiation
+        if (isCatalog(msg) || isEnd(msg) || msg.getPerformative() == ACLMessage.QUERY_REF) {
+            return session.getStateMachine().getState() == State.WAIT;
+        }
+        
+        String move = msg.getUserDefinedParameter(MOVE_PARAMETER);
+        if (move == null) {
+            return true;
+        }
+        int version = parseCatalogVersion(msg.getUserDefinedParameter(ManagerBehaviour.CATALOG_VERSION_PARAMETER));
+        return version < session.getCatalogVersion() || (version == session.getCatalogVersion() && parseMove(move) <= session.getLastMove() + 1);
+    }
+    
+    /** Remembers the number of a move of the panel that is going to be handled in the session of its conversation, and if it is a pass.
+     * The catalog of a new conversation creates its session, where the messages received before it are deferred */
+    private ACLMessage registerMove(EngineerAgent engineerAgent, ACLMessage msg) {
+        NegotiationSession session = engineerAgent.findSession(msg.getConversationId());
+        if (session == null) {
+            session = engineerAgent.getSession(msg.getConversationId());
+            ArrayList<ACLMessage> pending = pendingMessages.remove(conversationOf(msg));
+            if (pending != null) {
+                for (ACLMessage deferred : pending) {
+                    session.deferMessage(deferred);
+                }
+                deferringSessions.add(session);
+            }
+        }
+        
+        String move = msg.getUserDefinedParameter(MOVE_PARAMETER);
+        if (move != null && parseCatalogVersion(msg.getUserDefinedParameter(ManagerBehaviour.CATALOG_VERSION_PARAMETER)) == session.getCatalogVersion()) {
+            session.setLastMove(Math.max(session.getLastMove(), parseMove(move)));
+            session.registerMove(msg.getPerformative() == ACLMessage.REFUSE);
+        }
+        return msg;
+    }
+    
+    /** Retrieves the conversation id of a message, the default one if it has none */
+    private static String conversationOf(ACLMessage msg) {
+        return msg.getConversationId() == null ? EngineerAgent.DEFAULT_CONVERSATION_ID : msg.getConversationId();
+    }
+    
+    /** Checks if a message is a catalog broadcast from the manager */
+    private static boolean isCatalog(ACLMessage msg) {
+        return msg.getPerformative() == ACLMessage.INFORM_REF
+                && (ManagerBehaviour.CATALOG_ONTOLOGY.equals(msg.getOntology()) || ManagerBehaviour.CATALOG_DELTA_ONTOLOGY.equals(msg.getOntology()));
+    }
+    
+    /** Checks if a message is the end of the negotiation from the manager */
+    private static boolean isEnd(ACLMessage msg) {
+        return msg.getPerformative() == ACLMessage.INFORM_REF && ManagerBehaviour.END_ONTOLOGY.equals(msg.getOntology());
+    }
+    
+    /** Parses the number of a move, 0 if it is not valid so that the message is handled anyway */
+    private static int parseMove(String move) {
+        try {
+            return Integer.parseInt(move);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /** Builds a template matching the messages with any of the given performatives */
+    private static MessageTemplate buildTemplate(int[] performatives) {
+        MessageTemplate template = MessageTemplate.MatchPerformative(performatives[0]);
+        for (int i = 1; i < performatives.length; i++) {
+            template = MessageTemplate.or(template, MessageTemplate.MatchPerformative(performatives[i]));
+        }
+        return template;
+    }
+    
+    /** Parses the version of a catalog broadcast, 0 if the manager didn't give one and -1 if it is not valid */
+    private static int parseCatalogVersion(String version) {
+        if (version == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,137 @@
+package centralesupelec.engine.agents;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+import centralesupelec.engine.state_machine.State;
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+
+/** Measures the negotiations of every agent of the JVM while it is installed: messages, agreements, decision latencies by state,
+ * and the latencies of messages. Agents only report to it when one is installed, so that negotiations are not slowed down otherwise.
+ * Sent messages are stamped with their sender and sending time (in their reply-with field), and answers refer to the stamp
+ * of the message they answer (in their in-reply-to field), so that an agent receiving the answer to its own message measures a round trip.
+ * Agents report from their own threads, so every measure is recorded without a lock.
+ *
+ * @author Thomas Lamson
+ */
+public class NegotiationProbe {
+    /** Separates the sender's local name from the sending time in a stamp */
+    private static final char STAMP_SEPARATOR = '#';
+    
+    /** The probe agents report to, null when none is installed */
+    private static volatile NegotiationProbe installed;
+    
+    private LongAdder messages = new LongAdder();
+    /** Number of receivers of the sent messages */
+    private LongAdder deliveries = new LongAdder();
+    /** Number of items selected by the manager (TAKE orders), and of negotiations cancelled (CANCEL orders) */
+    private LongAdder agreements = new LongAdder();
+    private LongAdder cancellations = new LongAdder();
+    
+    /** Time taken by an engineer to choose and perform each transition, by reached state */
+    private LatencyHistogram[] decisionLatencies = new LatencyHistogram[State.values().length];
+    /** Time between the sending of a message and its handling by a receiver, waiting in the receiver's queue included */
+    private LatencyHistogram deliveryLatency = new LatencyHistogram();
+    /** Time between the sending of a message and the handling of an answer to it by its sender */
+    private LatencyHistogram roundTripLatency = new LatencyHistogram();
+    
+    public NegotiationProbe() {
+        for (int i = 0; i < decisionLatencies.length; i++) {
+            decisionLatencies[i] = new LatencyHistogram();
+        }
+    }
+    
+    /** Installs a probe that all agents report to from now on, replacing the previous one. Null uninstalls it */
+    public static void install(NegotiationProbe probe) {
+        installed = probe;
+    }
+    
+    /** Retrieves the installed probe, null if there is none */
+    public static NegotiationProbe get() {
+        return installed;
+    }
+    
+    /** Counts a message that is being sent by an agent, and stamps it */
+    public void messageSent(ACLMessage msg, AID sender) {
+        messages.increment();
+        Iterator<?> receivers = msg.getAllReceiver();
+        while (receivers.hasNext()) {
+            receivers.next();
+            deliveries.increment();
+        }
+        msg.setReplyWith(sender.getLocalName() + STAMP_SEPARATOR + System.nanoTime());
+    }
+    
+    /** Measures the latencies of a message that is being handled by one of its receivers */
+    public void messageReceived(ACLMessage msg, AID receiver) {
+        long now = System.nanoTime();
+        long sentAt = parseStamp(msg.getReplyWith(), null);
+        if (sentAt >= 0) {
+            deliveryLatency.record(now - sentAt);
+        }
+        long answeredSentAt = parseStamp(msg.getInReplyTo(), receiver.getLocalName());
+        if (answeredSentAt >= 0) {
+            roundTripLatency.record(now - answeredSentAt);
+        }
+    }
+    
+    /** Measures the time an engineer took to choose and perform a transition to a given state */
+    public void decisionMade(State state, long nanos) {
+        decisionLatencies[state.ordinal()].record(nanos);
+    }
+    
+    public void agreementReached() {
+        agreements.increment();
+    }
+    
+    public void negotiationCancelled() {
+        cancellations.increment();
+    }
+    
+    /** Parses the sending time of a stamp, if it was stamped by a given agent (any agent if null). Returns -1 otherwise */
+    private static long parseStamp(String stamp, String localName) {
+        if (stamp == null) {
+            return -1;
+        }
+        int separator = stamp.lastIndexOf(STAMP_SEPARATOR);
+        if (separator < 0 || (localName != null && (separator != localName.length() || !stamp.startsWith(localName)))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(stamp.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    // ------- GETTERS ------- // ------- SETTERS ------- //
+    
+    public long getMessages() {
+        return messages.sum();
+    }
+    
+    public long getDeliveries() {
+        return deliveries.sum();
+    }
+    
+    public long getAgreements() {
+        return agreements.sum();
+    }
+    
+    public long getCancellations() {
+        return cancellations.sum();
+    }
+    
+    public LatencyHistogram getDecisionLatency(State state) {
+        return decisionLatencies[state.ordinal()];
+    }
+    
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+    
+    public LatencyHistogram getRoundTripLatency() {
+        return roundTripLatency;
+    }
+}
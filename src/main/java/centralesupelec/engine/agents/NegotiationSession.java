@@ -0,0 +1,312 @@
+package centralesupelec.engine.agents;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import centralesupelec.engine.argumentation.AcceptanceIndex;
+import centralesupelec.engine.argumentation.Item;
+import centralesupelec.engine.argumentation.ItemRanking;
+import centralesupelec.engine.argumentation.ItemRegistry;
+import centralesupelec.engine.argumentation.graph.ArgumentMemo;
+import centralesupelec.engine.argumentation.graph.NegotiationGraph;
+import centralesupelec.engine.state_machine.Protocol;
+import centralesupelec.engine.state_machine.State;
+import centralesupelec.engine.state_machine.StateMachine;
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+
+/** One of the negotiations an EngineerAgent takes part in, identified by the conversation id of its messages.
+ * It holds everything that depends on the negotiation: state, negotiation graph, current item, remaining items and panel of engineers.
+ * The preferences are the agent's ones, and what is derived from the full catalog is shared with its other sessions over the same catalog
+ * (see CatalogIndex), so a session only keeps the items removed since. The session is ended once its negotiation concluded (see EngineerAgent.endSession).
+ *
+ * @author Thomas Lamson
+ */
+public class NegotiationSession {
+    /** Maximal number of messages deferred in a session, the following ones being dropped */
+    public static final int MAX_DEFERRED_MESSAGES = 256;
+    
+    /** Conversation id of the messages of this negotiation */
+    private String conversationId;
+    
+    /** Structures derived from the full catalog last sent by the manager, shared with the other sessions over it (null before the first one) */
+    private CatalogIndex catalogIndex;
+    /** Catalog positions of the items removed since the full catalog, and their ranks, which ranking cursors skip */
+    private BitSet removedPositions = new BitSet();
+    private BitSet removedRanks = new BitSet();
+    /** Index telling which remaining items are acceptable: a copy of the catalog's one, from which removed items are taken out */
+    private AcceptanceIndex acceptance;
+    /** Version of the catalog, incremented by the manager at each broadcast (0 if no catalog was received) */
+    private int catalogVersion = 0;
+    
+    /** Reference to the manager agent, updated by each catalog broadcast (null before the first one) */
+    private AID manager;
+    /** Engineers negotiating (the panel), in the order of the receivers of the manager's catalog. Each PROPOSE, INFORM or REFUSE is answered by the next one */
+    private AID[] panel = new AID[0];
+    /** The engineers of the panel other than us, receivers of our proposals and arguments */
+    private AID[] otherEngineers = new AID[0];
+    /** Number of CONFIRM messages still expected before taking the item we committed to */
+    private int pendingConfirms = 0;
+    /** Number of the last move multicast to the panel in the current catalog version, that we received or sent */
+    private int lastMove = 0;
+    /** Number of PASS moves multicast to the panel since the last other move of the current cycle, that we received or sent */
+    private int consecutivePasses = 0;
+    
+    /** A finite state machine describing the protocol by actions we can perform upon receiving performatives */
+    private StateMachine stateMachine;
+    /** A negotiation graph that handles the argumentation storage, generation and solving */
+    private NegotiationGraph graph = new NegotiationGraph();
+    
+    /** The item being discussed currently */
+    private Item currentItem;
+    
+    /** Messages received before we can handle them, in reception order (see NegotiateBehaviour) */
+    private ArrayList<ACLMessage> deferredMessages = new ArrayList<>(0);
+    
+    /** Creates a session at the initial state of a protocol */
+    public NegotiationSession(String conversationIdIn, Protocol protocol) {
+        conversationId = conversationIdIn;
+        stateMachine = new StateMachine(protocol);
+        stateMachine.setState(State.WAIT);
+    }
+    
+    /** Resets the negotiation graph for the next negotiation round */
+    public void resetGraph() {
+        graph = new NegotiationGraph();
+    }
+    
+    /** Checks if a given item is acceptable among the items of the current catalog */
+    public boolean canAccept(Item item) {
+        return acceptance != null && acceptance.canAccept(item);
+    }
+    
+    /** Retrieves an item by its name, useful for parsing. Optional is empty if name wasn't recognized as an item */
+    public Optional<Item> getItemByName(String itemName) {
+        return Optional.ofNullable(inCatalog(ItemRegistry.findByName(itemName)));
+    }
+    
+    /** Retrieves an item of the catalog by its name found between two indices of a string, without extracting it. Returns null if not recognized */
+    public Item getItemByName(String text, int start, int end) {
+        return inCatalog(ItemRegistry.findByName(text, start, end));
+    }
+    
+    /** Returns the given item if it is in the current catalog, null otherwise */
+    private Item inCatalog(Item item) {
+        return item != null && getItemIndex(item) >= 0 ? item : null;
+    }
+    
+    /** Retrieves the index of an item in the current catalog, -1 if it is not in the catalog */
+    public int getItemIndex(Item item) {
+        int index = catalogIndex == null ? -1 : catalogIndex.getItemIndex(item);
+        return index >= 0 && !removedPositions.get(index) ? index : -1;
+    }
+    
+    /** Retrieves a remaining item by its index in the current catalog. Optional is empty if the index is out of the catalog or was removed */
+    public Optional<Item> getItemByIndex(int index) {
+        List<Item> catalog = getCatalog();
+        if (index < 0 || index >= catalog.size() || getItemIndex(catalog.get(index)) != index) {
+            return Optional.empty();
+        }
+        return Optional.of(catalog.get(index));
+    }
+    
+    /** Creates a cursor over the remaining items of the current catalog, best first, that skips a collection of items (see ItemRanking) */
+    public ItemRanking.Cursor rankingCursor(Collection<Item> skippedItems) {
+        return catalogIndex.getRanking().cursor(removedRanks, skippedItems);
+    }
+    
+    /** Applies a catalog delta from the manager: removes the items at the given catalog indices.
+     * Returns false if the delta doesn't follow the current catalog version or refers to unknown items, in which case nothing is changed. */
+    public boolean applyCatalogDelta(int version, int[] removedIndices) {
+        if (version != catalogVersion + 1) {
+            return false;
+        }
+        
+        ArrayList<Item> removedItems = new ArrayList<>(removedIndices.length);
+        for (int index : removedIndices) {
+            Optional<Item> item = getItemByIndex(index);
+            if (!item.isPresent()) {
+                return false;
+            }
+            removedItems.add(item.get());
+        }
+        
+        // Only marking the items removed, the shared structures of the catalog staying as they are
+        for (Item item : removedItems) {
+            int index = getItemIndex(item);
+            if (index >= 0) {
+                removedPositions.set(index);
+                int rank = catalogIndex.getRanking().getRank(item);
+                if (rank >= 0) {
+                    removedRanks.set(rank);
+                }
+                acceptance.removeItem(item);
+            }
+        }
+        
+        catalogVersion = version;
+        return true;
+    }
+    
+    /** Sets the panel of engineers negotiating, as the receivers of a message from the manager, and the manager as its sender */
+    public void setPanel(ACLMessage catalogMsg, AID self) {
+        manager = catalogMsg.getSender();
+        
+        ArrayList<AID> receivers = new ArrayList<>();
+        Iterator<?> it = catalogMsg.getAllReceiver();
+        while (it.hasNext()) {
+            receivers.add((AID) it.next());
+        }
+        panel = receivers.toArray(new AID[receivers.size()]);
+        
+        receivers.remove(self);
+        otherEngineers = receivers.toArray(new AID[receivers.size()]);
+    }
+    
+    /** Checks if a given engineer must answer a proposal, an argument or a pass from another one: if it is the next one in the panel.
+     * Unknown senders are always answered */
+    public boolean isNextAfter(AID sender, AID self) {
+        for (int i = 0; i < panel.length; i++) {
+            if (panel[i].equals(sender)) {
+                return panel[(i + 1) % panel.length].equals(self);
+            }
+        }
+        return true;
+    }
+    
+    /** Registers a CONFIRM received while waiting to take an item. Returns the number of CONFIRM messages still expected */
+    public int registerConfirm() {
+        pendingConfirms = Math.max(0, pendingConfirms - 1);
+        return pendingConfirms;
+    }
+    
+    /** Numbers a move we multicast to the panel, following the last move received or sent */
+    public int nextMove() {
+        return ++lastMove;
+    }
+    
+    /** Defers a message until it can be handled. Returns false if too many messages are deferred already, in which case it is not */
+    public boolean deferMessage(ACLMessage msg) {
+        if (deferredMessages.size() >= MAX_DEFERRED_MESSAGES) {
+            return false;
+        }
+        deferredMessages.add(msg);
+        return true;
+    }
+    
+    /** Removes and returns the first deferred message that can be handled, null if there is none */
+    public ACLMessage pollDeferredMessage(Predicate<ACLMessage> canHandle) {
+        for (int i = 0; i < deferredMessages.size(); i++) {
+            if (canHandle.test(deferredMessages.get(i))) {
+                return deferredMessages.remove(i);
+            }
+        }
+        return null;
+    }
+    
+    public boolean hasDeferredMessages() {
+        return !deferredMessages.isEmpty();
+    }
+    
+    /** Counts a move of the panel, received or sent: passes follow each other until any other move */
+    public void registerMove(boolean pass) {
+        consecutivePasses = pass ? consecutivePasses + 1 : 0;
+    }
+    
+    // ------- GETTERS ------- // ------- SETTERS ------- //
+    
+    public String getConversationId() {
+        return conversationId;
+    }
+    
+    public StateMachine getStateMachine() {
+        return stateMachine;
+    }
+    
+    public NegotiationGraph getGraph() {
+        return graph;
+    }
+    
+    public Item getCurrentItem() {
+        return currentItem;
+    }
+    
+    public void setCurrentItem(Item currentItemIn) {
+        currentItem = currentItemIn;
+    }
+    
+    /** Builds the list of the remaining items of the current catalog, in catalog order */
+    public ArrayList<Item> getItems() {
+        List<Item> catalog = getCatalog();
+        ArrayList<Item> items = new ArrayList<>(catalog.size() - removedPositions.cardinality());
+        for (Item item : catalog) {
+            if (getItemIndex(item) >= 0) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+    
+    /** Retrieves the full catalog as sent by the manager, without the removals since */
+    public List<Item> getCatalog() {
+        return catalogIndex == null ? new ArrayList<>(0) : catalogIndex.getCatalog();
+    }
+    
+    public CatalogIndex getCatalogIndex() {
+        return catalogIndex;
+    }
+    
+    /** Sets the index of a full catalog, every item being back in the catalog. The catalog then only changes through catalog deltas (see applyCatalogDelta) */
+    public void setCatalogIndex(CatalogIndex catalogIndexIn) {
+        catalogIndex = catalogIndexIn;
+        removedPositions.clear();
+        removedRanks.clear();
+        acceptance = new AcceptanceIndex(catalogIndex.getAcceptance());
+    }
+    
+    public int getCatalogVersion() {
+        return catalogVersion;
+    }
+    
+    public void setCatalogVersion(int catalogVersionIn) {
+        catalogVersion = catalogVersionIn;
+    }
+    
+    public ArgumentMemo getArgumentMemo() {
+        return catalogIndex == null ? null : catalogIndex.getArgumentMemo();
+    }
+    
+    /** Retrieves the manager agent, the local "manager" agent before the first catalog broadcast */
+    public AID getManager() {
+        return manager != null ? manager : new AID("manager", AID.ISLOCALNAME);
+    }
+    
+    public AID[] getPanel() {
+        return panel;
+    }
+    
+    public AID[] getOtherEngineers() {
+        return otherEngineers;
+    }
+    
+    public void setPendingConfirms(int pendingConfirmsIn) {
+        pendingConfirms = pendingConfirmsIn;
+    }
+    
+    public int getLastMove() {
+        return lastMove;
+    }
+    
+    public void setLastMove(int lastMoveIn) {
+        lastMove = lastMoveIn;
+    }
+    
+    public int getConsecutivePasses() {
+        return consecutivePasses;
+    }
+}
@@ -0,0 +1,78 @@
+package centralesupelec.engine.argumentation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** An index answering in constant time if an item is acceptable among a catalog, with the same rule as Preferences.canAccept:
+ * the item must be in the top 10% of the catalog. Scores are bounded small integers, so the index keeps a histogram of the catalog
+ * scores and the resulting threshold, which is updated without sorting when items leave the catalog.
+ * The index doesn't remember which items it holds: the catalog it follows does (see NegotiationSession).
+ *
+ * @author Thomas Lamson
+ */
+public class AcceptanceIndex {
+    /** The preferences used to score items */
+    private Preferences preferences;
+    
+    /** Number of items of the indexed catalog */
+    private int itemCount;
+    
+    /** Number of catalog items reaching each score */
+    private int[] scoreCounts;
+    
+    /** Minimal score an item must reach to be acceptable */
+    private int threshold;
+    
+    /** Indexes a whole catalog */
+    public AcceptanceIndex(Preferences preferencesIn, List<Item> items) {
+        preferences = preferencesIn;
+        itemCount = items.size();
+        
+        int maxScore = 0;
+        for (Item item : items) {
+            maxScore = Math.max(maxScore, preferences.computeScore(item));
+        }
+        
+        scoreCounts = new int[maxScore + 1];
+        for (Item item : items) {
+            scoreCounts[preferences.computeScore(item)]++;
+        }
+        
+        updateThreshold();
+    }
+    
+    /** Copies an index, so that items can be removed from the copy without changing the original */
+    public AcceptanceIndex(AcceptanceIndex other) {
+        preferences = other.preferences;
+        itemCount = other.itemCount;
+        scoreCounts = Arrays.copyOf(other.scoreCounts, other.scoreCounts.length);
+        threshold = other.threshold;
+    }
+    
+    /** Checks if a given item is acceptable among the indexed catalog */
+    public boolean canAccept(Item item) {
+        return itemCount > 0 && preferences.computeScore(item) >= threshold;
+    }
+    
+    /** Removes an item from the indexed catalog and updates the acceptance threshold. The item must be in the catalog, and removed only once */
+    public void removeItem(Item item) {
+        itemCount--;
+        scoreCounts[preferences.computeScore(item)]--;
+        updateThreshold();
+    }
+    
+    /** Finds the score of the item ranked at the top 10% position, walking the histogram from the best score */
+    private void updateThreshold() {
+        int rank = Math.min((int) Math.ceil(0.1f * itemCount), itemCount);
+        
+        int seen = 0;
+        threshold = 0;
+        for (int score = scoreCounts.length - 1; score >= 0; score--) {
+            seen += scoreCounts[score];
+            if (seen >= rank) {
+                threshold = score;
+                return;
+            }
+        }
+    }
+}
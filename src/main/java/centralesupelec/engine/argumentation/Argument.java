@@ -10,16 +10,51 @@ import centralesupelec.engine.agents.EngineerAgent;
  */
 public class Argument {
     
-    /** Internal class that expresses a preference between two criteria */
-    public class CriterionPreference {
+    /** Number of known criteria, used to encode premises */
+    private static final int CRITERIA_COUNT = EnumCriterion.values().length;
+    
+    /** Number of known values, used to encode premises */
+    private static final int VALUES_COUNT = EnumValue.values().length;
+    
+    /** Code of a missing premise */
+    private static final byte NO_PREMISE = -1;
+    
+    /** Separators and keywords of the text format of arguments: "[not ]Item <= Criterion = VALUE[, Superior > Inferior]" */
+    private static final String STATEMENT_SEPARATOR = " <= ";
+    private static final String PREMISE_SEPARATOR = ", ";
+    private static final String VALUE_SEPARATOR = " = ";
+    private static final String PREFERENCE_SEPARATOR = " > ";
+    private static final String NEGATION = "not ";
+    
+    /** Internal class that expresses a preference between two criteria. Instances are canonical and shared, see CriterionPreference.of */
+    public static class CriterionPreference {
+        /** Canonical premises, indexed by code (superior ordinal x inferior ordinal) */
+        private static final CriterionPreference[] PREMISES = new CriterionPreference[CRITERIA_COUNT * CRITERIA_COUNT];
+        static {
+            for (EnumCriterion superior : EnumCriterion.values()) {
+                for (EnumCriterion inferior : EnumCriterion.values()) {
+                    PREMISES[code(superior, inferior)] = new CriterionPreference(superior, inferior);
+                }
+            }
+        }
+        
         private EnumCriterion superiorCriterion;
         private EnumCriterion inferiorCriterion;
         
-        public CriterionPreference(EnumCriterion superiorCriterionIn, EnumCriterion inferiorCriterionIn) {
+        private CriterionPreference(EnumCriterion superiorCriterionIn, EnumCriterion inferiorCriterionIn) {
             superiorCriterion = superiorCriterionIn;
             inferiorCriterion = inferiorCriterionIn;
         }
         
+        /** Retrieves the canonical premise stating that a criterion is more important than another one */
+        public static CriterionPreference of(EnumCriterion superiorCriterion, EnumCriterion inferiorCriterion) {
+            return PREMISES[code(superiorCriterion, inferiorCriterion)];
+        }
+        
+        private static int code(EnumCriterion superiorCriterion, EnumCriterion inferiorCriterion) {
+            return superiorCriterion.ordinal() * CRITERIA_COUNT + inferiorCriterion.ordinal();
+        }
+        
         public EnumCriterion getSuperiorCriterion() {
             return superiorCriterion;
         }
@@ -33,15 +68,34 @@ public class Argument {
         }
     }
     
-    /** Internal class that expresses a value given to an item on a certain criterion */
-    public class ItemValue {
+    /** Internal class that expresses a value given to an item on a certain criterion. Instances are canonical and shared, see ItemValue.of */
+    public static class ItemValue {
+        /** Canonical premises, indexed by code (criterion ordinal x value ordinal) */
+        private static final ItemValue[] PREMISES = new ItemValue[CRITERIA_COUNT * VALUES_COUNT];
+        static {
+            for (EnumCriterion criterion : EnumCriterion.values()) {
+                for (EnumValue value : EnumValue.values()) {
+                    PREMISES[code(criterion, value)] = new ItemValue(criterion, value);
+                }
+            }
+        }
+        
         private EnumCriterion criterion;
         private EnumValue value;
         
-        public ItemValue(EnumCriterion criterionIn, EnumValue valueIn) {
+        private ItemValue(EnumCriterion criterionIn, EnumValue valueIn) {
             criterion = criterionIn;
             value = valueIn;
         }
+        
+        /** Retrieves the canonical premise stating the value of an item on a criterion */
+        public static ItemValue of(EnumCriterion criterion, EnumValue value) {
+            return PREMISES[code(criterion, value)];
+        }
+        
+        private static int code(EnumCriterion criterion, EnumValue value) {
+            return criterion.ordinal() * VALUES_COUNT + value.ordinal();
+        }
 
         public EnumCriterion getCriterion() {
             return criterion;
@@ -62,11 +116,11 @@ public class Argument {
     /** Is the argument for or against the item? */
     private boolean isPro;
     
-    /** An optional criterion preference premise */
-    private CriterionPreference criterionPremise;
+    /** Code of the optional criterion preference premise (superior ordinal x inferior ordinal), or NO_PREMISE */
+    private byte criterionPremise = NO_PREMISE;
     
-    /** A criterion value premise */
-    private ItemValue valuePremise;
+    /** Code of the criterion value premise (criterion ordinal x value ordinal), or NO_PREMISE */
+    private byte valuePremise = NO_PREMISE;
 
     /** Creates an argument we no premise. Warning: a criterion value premise should always be added before using the argument */
     public Argument(Item itemIn, boolean isProIn) {
@@ -74,42 +128,57 @@ public class Argument {
         isPro = isProIn;
     }
     
-    /** Creates and registers a criterion preference premise to the argument */
+    /** Registers a criterion preference premise to the argument */
     public void addCriterionPreference(EnumCriterion superiorCriterion, EnumCriterion inferiorCriterion) {
-        criterionPremise = new CriterionPreference(superiorCriterion, inferiorCriterion);
+        criterionPremise = (byte) CriterionPreference.code(superiorCriterion, inferiorCriterion);
     }
     
-    /** Creates and registers a criterion value premise to the argument */
+    /** Registers a criterion value premise to the argument */
     public void addValuePremise(EnumCriterion criterion, EnumValue value) {
-        valuePremise = new ItemValue(criterion, value);
+        valuePremise = (byte) ItemValue.code(criterion, value);
+    }
+    
+    /** Ordinal of the criterion of the value premise */
+    private int valueCriterion() {
+        return valuePremise / VALUES_COUNT;
+    }
+    
+    /** Ordinal of the superior criterion of the criterion premise */
+    private int superiorCriterion() {
+        return criterionPremise / CRITERIA_COUNT;
+    }
+    
+    /** Ordinal of the inferior criterion of the criterion premise */
+    private int inferiorCriterion() {
+        return criterionPremise % CRITERIA_COUNT;
     }
     
     /** Computes if this argument can be added deeper in the branch than a given other argument. */
     public boolean isStrongerThan(Argument other) {
-        if (criterionPremise == null) {
+        if (criterionPremise == NO_PREMISE) {
             // An argument always requires a criterion premise to be stronger than another argument
             return false;
-        } else if (other.criterionPremise == null) {
+        } else if (other.criterionPremise == NO_PREMISE) {
             // An argument with criterion premise is always stronger than an argument without
             return true;
         } else {
             // If a given criterion was considered less important than another one in the branch, it cannot be used again
-            return other.criterionPremise.inferiorCriterion != criterionPremise.superiorCriterion;
+            return other.inferiorCriterion() != superiorCriterion();
         }
     }
     
     /** Computes if this argument is attacking another given argument, and therefore can be added in the branch directly below it. */
     public boolean isAttacking(Argument other) {
         // An argument always require a criterion premise that supports its value premise to attack another argument
-        if (criterionPremise == null || criterionPremise.superiorCriterion != valuePremise.criterion)
+        if (criterionPremise == NO_PREMISE || superiorCriterion() != valueCriterion())
             return false;
         
         // If both arguments talk about the same criterion, they are not attacking each other
-        if (other.valuePremise.criterion == valuePremise.criterion)
+        if (other.valueCriterion() == valueCriterion())
             return false;
         
         // To attack an argument, our criterion preference should state that our criterion is better than the other argument's criterion
-        return other.valuePremise.criterion == criterionPremise.inferiorCriterion;
+        return other.valueCriterion() == inferiorCriterion();
     }
     
     /** Converts an argument to String in order to send it to another agent */
@@ -117,16 +186,16 @@ public class Argument {
         String result = "";
         
         if (!isPro)
-            result += "not ";
+            result += NEGATION;
         result += item.getName();
-        result += " <= ";
+        result += STATEMENT_SEPARATOR;
         
-        if (valuePremise != null) {
-            result += valuePremise.toString() + ", ";
+        if (valuePremise != NO_PREMISE) {
+            result += getValuePremise().toString() + ", ";
         }
         
-        if (criterionPremise != null) {
-            result += criterionPremise.toString() + ", ";
+        if (criterionPremise != NO_PREMISE) {
+            result += getCriterionPremise().toString() + ", ";
         }
         
         result = result.substring(0, result.length() - 2);
@@ -134,75 +203,91 @@ public class Argument {
         return result;
     }
     
-    /** Tries to parse an argument in a String. Returns an empty Optional if not possible to parse */
+    /** Tries to parse an argument in a String. Returns an empty Optional if not possible to parse.
+     * The String is read in place, looking names up in hash tables, so that only the argument itself is allocated. */
     public static Optional<Argument> parseArgument(String content, EngineerAgent agent) {
         
         // CHECK: a statement and a premises part
-        String[] mainElements = content.split(" <= ");
-        if (mainElements.length == 2) {
-            String itemElement = mainElements[0];
-
-            // Is is an argument for or against an item?
-            boolean isPro;
-            if (itemElement.startsWith("not ")) {
-                isPro = false;
-                itemElement = itemElement.substring(4);
-            } else {
-                isPro = true;
-            }
-            
-            // CHECK: the item is known
-            Optional<Item> item = agent.getItemByName(itemElement);
-            if (item.isPresent()) {
-                Argument argument = new Argument(item.get(), isPro);
-                
-                // CHECK: there is at least one premise
-                String[] premisesElements = mainElements[1].split(", ");
-                if (premisesElements.length > 0) {
-                    
-                    // CHECK: first premise is a value premise
-                    String[] valuePremiseElements = premisesElements[0].split(" = ");
-                    if (valuePremiseElements.length == 2) {
-                        String criterionName = valuePremiseElements[0];
-                        String valueName = valuePremiseElements[1];
-                        
-                        Optional<EnumCriterion> criterion = EnumCriterion.findByName(criterionName);
-                        Optional<EnumValue> value = EnumValue.findByName(valueName);
-                        
-                        // CHECK: criterion and value are recognized
-                        if (criterion.isPresent() && value.isPresent()) {
-                            argument.addValuePremise(criterion.get(), value.get());
-                            
-                            // If there is only a value premise, we stop here and return a valid argument
-                            if (premisesElements.length == 1) {
-                                return Optional.of(argument);
-                            }
-                            
-                            // CHECK: second premise is a criterion preference
-                            String[] criterionPremiseElements = premisesElements[1].split(" > ");
-                            if (criterionPremiseElements.length == 2) {
-                                Optional<EnumCriterion> superiorCriterion = EnumCriterion.findByName(criterionPremiseElements[0]);
-                                Optional<EnumCriterion> inferiorCriterion = EnumCriterion.findByName(criterionPremiseElements[1]);
-                                
-                                // CHECK: superior and inferior criteria are recognized
-                                if (superiorCriterion.isPresent() && inferiorCriterion.isPresent()) {
-                                    argument.addCriterionPreference(superiorCriterion.get(), inferiorCriterion.get());
-                                    
-                                    // CHECK: there is not more than two premises
-                                    if (premisesElements.length == 2) {
-                                        
-                                        // We return a valid argument
-                                        return Optional.of(argument);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+        int statementEnd = findSeparator(content, STATEMENT_SEPARATOR, 0, content.length());
+        if (statementEnd < 0) {
+            return Optional.empty();
+        }
+        
+        // Is is an argument for or against an item?
+        int itemStart = 0;
+        boolean isPro = true;
+        if (content.startsWith(NEGATION)) {
+            isPro = false;
+            itemStart = NEGATION.length();
+        }
+        
+        // CHECK: the item is known
+        Item item = agent.getItemByName(content, itemStart, statementEnd);
+        if (item == null) {
+            return Optional.empty();
+        }
+        Argument argument = new Argument(item, isPro);
+        
+        // CHECK: first premise is a value premise
+        int valueStart = statementEnd + STATEMENT_SEPARATOR.length();
+        int valueEnd = content.indexOf(PREMISE_SEPARATOR, valueStart);
+        if (valueEnd < 0) {
+            valueEnd = content.length();
+        }
+        int valueSeparator = findSeparator(content, VALUE_SEPARATOR, valueStart, valueEnd);
+        if (valueSeparator < 0) {
+            return Optional.empty();
+        }
+        
+        EnumCriterion criterion = EnumCriterion.findByName(content, valueStart, valueSeparator);
+        EnumValue value = EnumValue.findByName(content, valueSeparator + VALUE_SEPARATOR.length(), valueEnd);
+        
+        // CHECK: criterion and value are recognized
+        if (criterion == null || value == null) {
+            return Optional.empty();
         }
+        argument.addValuePremise(criterion, value);
         
-        return Optional.empty();
+        // If there is only a value premise, we stop here and return a valid argument
+        if (valueEnd == content.length()) {
+            return Optional.of(argument);
+        }
+        
+        // CHECK: second premise is a criterion preference, and there is not more than two premises
+        int preferenceStart = valueEnd + PREMISE_SEPARATOR.length();
+        if (content.indexOf(PREMISE_SEPARATOR, preferenceStart) >= 0) {
+            return Optional.empty();
+        }
+        int preferenceSeparator = findSeparator(content, PREFERENCE_SEPARATOR, preferenceStart, content.length());
+        if (preferenceSeparator < 0) {
+            return Optional.empty();
+        }
+        
+        EnumCriterion superiorCriterion = EnumCriterion.findByName(content, preferenceStart, preferenceSeparator);
+        EnumCriterion inferiorCriterion = EnumCriterion.findByName(content, preferenceSeparator + PREFERENCE_SEPARATOR.length(), content.length());
+        
+        // CHECK: superior and inferior criteria are recognized
+        if (superiorCriterion == null || inferiorCriterion == null) {
+            return Optional.empty();
+        }
+        argument.addCriterionPreference(superiorCriterion, inferiorCriterion);
+        
+        // We return a valid argument
+        return Optional.of(argument);
+    }
+    
+    /** Finds a separator that appears exactly once between two indices of a String, splitting it in two parts. Returns -1 otherwise */
+    private static int findSeparator(String content, String separator, int start, int end) {
+        int index = content.indexOf(separator, start);
+        if (index < 0 || index + separator.length() > end) {
+            return -1;
+        }
+        
+        int next = content.indexOf(separator, index + separator.length());
+        if (next >= 0 && next + separator.length() <= end) {
+            return -1;
+        }
+        return index;
     }
     
     // ------- GETTERS ------- // ------- SETTERS ------- //
@@ -216,10 +301,10 @@ public class Argument {
     }
 
     public CriterionPreference getCriterionPremise() {
-        return criterionPremise;
+        return criterionPremise == NO_PREMISE ? null : CriterionPreference.PREMISES[criterionPremise];
     }
 
     public ItemValue getValuePremise() {
-        return valuePremise;
+        return valuePremise == NO_PREMISE ? null : ItemValue.PREMISES[valuePremise];
     }
 }
@@ -14,6 +14,14 @@ public enum EnumCriterion {
     ENVIRONMENT("Environment"),
     NOISE("Noise");
     
+    /** Criteria by name, for parsing */
+    private static final NameTable<EnumCriterion> BY_NAME = new NameTable<>(values().length);
+    static {
+        for (EnumCriterion crit : values()) {
+            BY_NAME.put(crit.name, crit);
+        }
+    }
+    
     private String name;
     private EnumCriterion(String nameIn) {
         name = nameIn;
@@ -25,11 +33,11 @@ public enum EnumCriterion {
     
     /** Tries to find the criterion corresponding to the given name, returns empty Optional if not recognized */
     public static Optional<EnumCriterion> findByName(String name) {
-        for (EnumCriterion crit : values()) {
-            if (crit.name.equals(name)) {
-                return Optional.of(crit);
-            }
-        }
-        return Optional.empty();
+        return Optional.ofNullable(BY_NAME.get(name));
+    }
+    
+    /** Retrieves the criterion whose name is found between two indices of a string, without extracting it. Returns null if not recognized */
+    public static EnumCriterion findByName(String text, int start, int end) {
+        return BY_NAME.get(text, start, end);
     }
 }
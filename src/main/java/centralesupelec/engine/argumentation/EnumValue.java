@@ -13,6 +13,14 @@ public enum EnumValue {
     GOOD(2, "GOOD"),
     VERY_GOOD(3, "VERY_GOOD");
     
+    /** Values by name, for parsing */
+    private static final NameTable<EnumValue> BY_NAME = new NameTable<>(values().length);
+    static {
+        for (EnumValue val : values()) {
+            BY_NAME.put(val.name, val);
+        }
+    }
+    
     private int value;
     private String name;
     
@@ -31,7 +39,12 @@ public enum EnumValue {
     
     /** Picks a random value amongst existing */
     public static EnumValue pickRandom() {
-        return EnumValue.values()[new Random().nextInt(EnumValue.values().length)];
+        return pickRandom(new Random());
+    }
+    
+    /** Picks a random value amongst existing, drawn from a given generator */
+    public static EnumValue pickRandom(Random random) {
+        return EnumValue.values()[random.nextInt(EnumValue.values().length)];
     }
 
     /** Tries to retrieve a value from its integer value. Returns an empty Optional if not recognized */
@@ -46,11 +59,11 @@ public enum EnumValue {
 
     /** Tries to retrieve a value from its name. Returns an empty Optional if not recognized */
     public static Optional<EnumValue> findByName(String name) {
-        for (EnumValue val : values()) {
-            if (val.name.equals(name)) {
-                return Optional.of(val);
-            }
-        }
-        return Optional.empty();
+        return Optional.ofNullable(BY_NAME.get(name));
+    }
+    
+    /** Retrieves the value whose name is found between two indices of a string, without extracting it. Returns null if not recognized */
+    public static EnumValue findByName(String text, int start, int end) {
+        return BY_NAME.get(text, start, end);
     }
 }
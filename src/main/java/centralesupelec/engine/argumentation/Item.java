@@ -1,56 +1,108 @@
 package centralesupelec.engine.argumentation;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Optional;
+import java.util.Scanner;
 
 /** An item that needs to be negotiated
  *
  * @author Thomas Lamson
  */ 
 public class Item {
+    /** Registry of the scope of the item, which gave its dense id */
+    private ItemRegistry registry;
+    /** Dense id given by the ItemRegistry */
+    private int id;
     private String name;
-    private String description;
     
-    public Item(String nameIn, String descriptionIn) {
+    /** Creates a canonical item, only called by the ItemRegistry */
+    Item(ItemRegistry registryIn, int idIn, String nameIn) {
+        registry = registryIn;
+        id = idIn;
         name = nameIn;
-        description = descriptionIn;
+    }
+    
+    /** Retrieves the canonical item with a given name, registering it with the given description if it is unknown */
+    public static Item of(String name, String description) {
+        return ItemRegistry.register(name, description);
     }
     
     @Override
-    /** Reimplemented to still match items that are not the exact same instance */
+    /** Items are canonical, so their id identifies them */
     public int hashCode() {
-        return name.hashCode();
+        return id;
     }
     
     @Override
-    /** Reimplemented to still match items that are not the exact same instances */
+    /** Items are canonical, so their id identifies them in their scope */
     public boolean equals(Object other) {
-        return other instanceof Item && name.equals(((Item) other).name);
+        return other instanceof Item && id == ((Item) other).id && registry == ((Item) other).registry;
     }
     
     public String toString() {
-        return name + ";" + description;
+        return name + ";" + getDescription();
     }
     
     /** Parse a String into a list of items. Format: ItemName;ItemDescription|OtherItem;OtherDescription|... */
     public static ArrayList<Item> parseItems(String content) {
         ArrayList<Item> items = new ArrayList<>();
         
-        String[] itemStrings = content.split("\\|");
-        for (String str : itemStrings) {
-            String[] elts = str.split(";");
-            items.add(new Item(elts[0], elts[1]));
+        // Reading the items in place, only extracting the names and descriptions of items that are not registered yet
+        int start = 0;
+        while (start < content.length()) {
+            int end = content.indexOf('|', start);
+            if (end < 0) {
+                end = content.length();
+            }
+            
+            int nameEnd = content.indexOf(';', start);
+            if (nameEnd < 0 || nameEnd > end) {
+                throw new IllegalArgumentException("Item \"" + content.substring(start, end) + "\" has no description.");
+            }
+            int descriptionEnd = content.indexOf(';', nameEnd + 1);
+            if (descriptionEnd < 0 || descriptionEnd > end) {
+                descriptionEnd = end;
+            }
+            
+            items.add(ItemRegistry.register(content, start, nameEnd, nameEnd + 1, descriptionEnd));
+            start = end + 1;
         }
         
         return items;
     }
     
+    /** Reads an item list file, one "ItemName;ItemDescription" item per line. Returns an empty Optional if the file was not found */
+    public static Optional<ArrayList<Item>> loadFromFile(String filePath) {
+        ArrayList<Item> items = new ArrayList<>();
+        try {
+            Scanner scanner = new Scanner(new File(filePath));
+            while (scanner.hasNextLine()) {
+                items.add(parseItems(scanner.nextLine()).get(0));
+            }
+            scanner.close();
+        } catch(FileNotFoundException e) {
+            return Optional.empty();
+        }
+        return Optional.of(items);
+    }
+    
     // ------- GETTERS ------- // ------- SETTERS ------- //
 
+    public int getId() {
+        return id;
+    }
+
     public String getName() {
         return name;
     }
 
     public String getDescription() {
-        return description;
+        return registry.getDescription(id);
+    }
+
+    ItemRegistry getRegistry() {
+        return registry;
     }
 }
@@ -0,0 +1,90 @@
+package centralesupelec.engine.argumentation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/** The items of a catalog, ranked once from best to worst score for an agent's preferences.
+ * Items with the same score keep the order of the preferences, as with Preferences.findBest.
+ * The ranking doesn't change once built, so it is shared by the negotiations over the same catalog, each one skipping its own removed items.
+ *
+ * @author Thomas Lamson
+ */
+public class ItemRanking {
+    
+    /** Internal class that walks the ranking from best to worst item, skipping a given set of items */
+    public class Cursor {
+        /** Ranks of the items to skip */
+        private BitSet skipped;
+        
+        /** Rank of the next item to return, or the size of the ranking if there is none */
+        private int next;
+        
+        private Cursor(BitSet skippedIn) {
+            skipped = skippedIn;
+            next = skipped.nextClearBit(0);
+        }
+        
+        public boolean hasNext() {
+            return next < ranked.size();
+        }
+        
+        /** Returns the best remaining item and moves to the next one */
+        public Item next() {
+            Item item = ranked.get(next);
+            next = skipped.nextClearBit(next + 1);
+            return item;
+        }
+    }
+    
+    /** Ranked items, best first */
+    private ArrayList<Item> ranked = new ArrayList<>();
+    
+    /** Rank of each item, indexed by item id from the smallest id of the catalog (-1 for items out of the ranking) */
+    private int[] ranks;
+    private int idBase;
+    
+    /** Ranks the items of a catalog that are evaluated in the given preferences */
+    public ItemRanking(Preferences preferences, List<Item> items) {
+        BitSet catalog = new BitSet();
+        for (Item item : items) {
+            catalog.set(item.getId());
+        }
+        for (Item item : preferences.getItems()) {
+            if (catalog.get(item.getId())) {
+                ranked.add(item);
+            }
+        }
+        
+        // Stable sort, so that equal scores keep the preferences order
+        ranked.sort((a, b) -> Integer.compare(preferences.computeScore(b), preferences.computeScore(a)));
+        
+        idBase = Math.max(0, catalog.nextSetBit(0));
+        ranks = new int[Math.max(0, catalog.length() - idBase)];
+        Arrays.fill(ranks, -1);
+        for (int i = 0; i < ranked.size(); i++) {
+            ranks[ranked.get(i).getId() - idBase] = i;
+        }
+    }
+    
+    /** Retrieves the rank of an item, -1 if it is out of the ranking */
+    public int getRank(Item item) {
+        int slot = item.getId() - idBase;
+        return slot >= 0 && slot < ranks.length ? ranks[slot] : -1;
+    }
+    
+    /** Creates a cursor over the ranking, best first, that skips the items at some ranks (typically the ones removed from the catalog)
+     * and a collection of items (typically the ones already proposed) */
+    public Cursor cursor(BitSet skippedRanks, Collection<Item> skippedItems) {
+        BitSet skipped = (BitSet) skippedRanks.clone();
+        for (Item item : skippedItems) {
+            int rank = getRank(item);
+            if (rank >= 0) {
+                skipped.set(rank);
+            }
+        }
+        return new Cursor(skipped);
+    }
+}
@@ -0,0 +1,125 @@
+package centralesupelec.engine.argumentation;
+
+import java.util.Arrays;
+
+/** The registry of known items, shared by the agents of the JVM. Each item name is registered once and gets a dense integer id,
+ * so that there is a single canonical Item instance per name and data about items can be stored in arrays indexed by id.
+ * Descriptions are stored once, from the first registration that gives one. Registration and lookups are thread-safe:
+ * registrations of new items or descriptions are serialized, while lookups and registrations of items already known with their description
+ * take no lock, so that agents on every core can parse messages and catalogs without contending.
+ * Items are registered in the current scope, until reset starts a new one. Each item refers to the registry of its scope,
+ * which is freed with its descriptions once none of its items are referenced.
+ *
+ * @author Thomas Lamson
+ */
+public final class ItemRegistry {
+    /** The registry of the current scope, where items are registered and found by name */
+    private static volatile ItemRegistry current = new ItemRegistry();
+    
+    /** Registered items, indexed by id. Only the first size slots are set */
+    private volatile Item[] items = new Item[16];
+    
+    /** Description of each registered item, indexed by id (null if not known yet) */
+    private volatile String[] descriptions = new String[16];
+    
+    /** Number of registered items, written after the item it counts is stored */
+    private volatile int size = 0;
+    
+    /** Registered items by name */
+    private NameTable<Item> itemsByName = new NameTable<>();
+    
+    private ItemRegistry() {}
+    
+    /** Starts a new scope: items are registered again from id 0, and the items of the previous scope are no longer found by name.
+     * Must only be called when no negotiation is running, since agents find the items of their messages in the current scope.
+     * Items of different scopes must not be mixed in a catalog. */
+    public static void reset() {
+        synchronized (ItemRegistry.class) {
+            current = new ItemRegistry();
+        }
+    }
+    
+    /** Retrieves the canonical item with a given name, registering it with the given description if it is unknown */
+    public static Item register(String name, String description) {
+        ItemRegistry registry = current;
+        Item item = registry.itemsByName.get(name);
+        if (item != null && registry.hasDescription(item.getId())) {
+            return item;
+        }
+        synchronized (ItemRegistry.class) {
+            return current.registerItem(name, description);
+        }
+    }
+    
+    /** Retrieves the canonical item whose name is found between two indices of a string, registering it if it is unknown.
+     * The name and the description are only extracted from the string when they are not known yet. */
+    public static Item register(String text, int nameStart, int nameEnd, int descriptionStart, int descriptionEnd) {
+        // Items are usually known already, as every engineer parses the same catalog
+        ItemRegistry known = current;
+        Item knownItem = known.itemsByName.get(text, nameStart, nameEnd);
+        if (knownItem != null && known.hasDescription(knownItem.getId())) {
+            return knownItem;
+        }
+        
+        // The lookup may have missed an item being registered, so it is done again with the lock held
+        synchronized (ItemRegistry.class) {
+            ItemRegistry registry = current;
+            Item item = registry.itemsByName.get(text, nameStart, nameEnd);
+            if (item == null || registry.descriptions[item.getId()] == null) {
+                String name = item == null ? text.substring(nameStart, nameEnd) : item.getName();
+                item = registry.registerItem(name, text.substring(descriptionStart, descriptionEnd));
+            }
+            return item;
+        }
+    }
+    
+    /** Checks without lock if the description of an item is known. A description being stored may be missed, never one of another item */
+    private boolean hasDescription(int id) {
+        String[] known = descriptions;
+        return id < known.length && known[id] != null;
+    }
+    
+    /** Registers an item in this registry, called with the class lock held */
+    private Item registerItem(String name, String description) {
+        Item item = itemsByName.get(name);
+        if (item == null) {
+            item = new Item(this, size, name);
+            if (size == items.length) {
+                descriptions = Arrays.copyOf(descriptions, size * 2);
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = item;
+            descriptions[size] = description;
+            itemsByName.put(name, item);
+            size = size + 1;
+        } else if (descriptions[item.getId()] == null) {
+            descriptions[item.getId()] = description;
+        }
+        return item;
+    }
+    
+    /** Retrieves an item of the current scope by its name, null if there is none */
+    public static Item findByName(String name) {
+        return current.itemsByName.get(name);
+    }
+    
+    /** Retrieves an item of the current scope by its name found between two indices of a string, without extracting it. Null if there is none */
+    public static Item findByName(String text, int start, int end) {
+        return current.itemsByName.get(text, start, end);
+    }
+    
+    /** Retrieves the number of items registered in the current scope, which bounds their ids */
+    public static int size() {
+        return current.size;
+    }
+    
+    /** Retrieves a registered item by its id, null if there is none */
+    Item getItem(int id) {
+        return id >= 0 && id < size ? items[id] : null;
+    }
+    
+    /** Retrieves the description of a registered item, null if it was never given */
+    String getDescription(int id) {
+        return descriptions[id];
+    }
+}
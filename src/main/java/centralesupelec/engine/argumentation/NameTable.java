@@ -0,0 +1,112 @@
+package centralesupelec.engine.argumentation;
+
+/** A hash table from names to values that can be queried with a region of a larger string, without extracting it.
+ * Used by the message parsers to recognize item, criterion and value names in place.
+ * Lookups need no lock while a single thread modifies the table: entries are immutable and a grown table is only published once filled.
+ * A lookup concurrent with an insertion may miss the entry being inserted.
+ *
+ * @author Thomas Lamson
+ */
+public class NameTable<T> {
+    /** Entries, in open addressing slots (null for empty slots) */
+    private volatile Entry<T>[] entries;
+    
+    /** Number of entries */
+    private int size;
+    
+    public NameTable() {
+        this(8);
+    }
+    
+    /** Creates a table sized to hold a given number of entries without growing */
+    public NameTable(int expectedSize) {
+        entries = newEntries(Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) * 2);
+    }
+    
+    /** Registers a value under a name, replacing any value with the same name */
+    public void put(String name, T value) {
+        Entry<T>[] table = entries;
+        int slot = findSlot(table, name, 0, name.length());
+        if (table[slot] == null) {
+            size++;
+        }
+        
+        // Keeping the table at most half full so that probing stays short. The grown table is filled before being published
+        if (size * 2 > table.length) {
+            Entry<T>[] grown = newEntries(table.length * 2);
+            for (Entry<T> entry : table) {
+                if (entry != null) {
+                    grown[findSlot(grown, entry.name, 0, entry.name.length())] = entry;
+                }
+            }
+            grown[findSlot(grown, name, 0, name.length())] = new Entry<>(name, value);
+            entries = grown;
+        } else {
+            table[slot] = new Entry<>(name, value);
+        }
+    }
+    
+    /** Retrieves the value registered under a name, null if there is none */
+    public T get(String name) {
+        return get(name, 0, name.length());
+    }
+    
+    /** Retrieves the value registered under the name found between two indices of a string, null if there is none */
+    public T get(String text, int start, int end) {
+        if (start < 0 || end > text.length() || start > end) {
+            return null;
+        }
+        Entry<T>[] table = entries;
+        Entry<T> entry = table[findSlot(table, text, start, end)];
+        return entry == null ? null : entry.value;
+    }
+    
+    /** Removes every entry */
+    public void clear() {
+        entries = newEntries(entries.length);
+        size = 0;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /** Finds the slot of a table holding the name found in a region of a string, or the empty slot where it should be inserted */
+    private static <T> int findSlot(Entry<T>[] table, String text, int start, int end) {
+        int length = end - start;
+        
+        // Same hash as String.hashCode, computed on the region
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        hash ^= hash >>> 16;
+        
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        Entry<T> entry;
+        while ((entry = table[slot]) != null) {
+            if (entry.name.length() == length && entry.name.regionMatches(0, text, start, length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] newEntries(int capacity) {
+        return (Entry<T>[]) new Entry<?>[capacity];
+    }
+    
+    /** An immutable entry: final fields are seen initialized by any thread that sees the entry */
+    private static final class Entry<T> {
+        private final String name;
+        private final T value;
+        
+        Entry(String nameIn, T valueIn) {
+            name = nameIn;
+            value = valueIn;
+        }
+    }
+}
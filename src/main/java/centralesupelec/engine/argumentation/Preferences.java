@@ -4,9 +4,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Scanner;
 
 /** Represents the preferences of an agent for a list of items against a list of criterion
@@ -14,11 +16,44 @@ import java.util.Scanner;
  * @author Thomas Lamson
  */
 public class Preferences {
+    /** Number of known criteria, which is the width of a row in the grade matrix */
+    private static final int CRITERIA_COUNT = EnumCriterion.values().length;
+    
+    /** Known values, indexed by ordinal, to decode the grade matrix without copying EnumValue.values() */
+    private static final EnumValue[] VALUES = EnumValue.values();
+    
+    /** Marker of a missing grade in the grade matrix */
+    private static final byte NO_GRADE = -1;
+    
+    /** Marker of an item that is not evaluated in the rows by id */
+    private static final int NO_ROW = -1;
+    
     /** Ordered criteria, in descending order of importance (more important ones are at the beginning) */
     private ArrayList<EnumCriterion> criteria = new ArrayList<>();
     
-    /** Values given to an item in a criterion */
-    private ArrayList<CriterionValue> values = new ArrayList<>();
+    /** Evaluated items, in the order they were first graded. The position of an item is its row in the grade matrix */
+    private ArrayList<Item> items = new ArrayList<>();
+    
+    /** Row of each evaluated item in the grade matrix, indexed by item id (NO_ROW for items that are not evaluated) */
+    private int[] rows = new int[0];
+    
+    /** Dense grade matrix (item index x criterion ordinal) holding EnumValue ordinals, or NO_GRADE */
+    private byte[] grades = new byte[0];
+    
+    /** Integer importance of each criterion, indexed by criterion ordinal */
+    private int[] importances = new int[CRITERIA_COUNT];
+    
+    /** Cached weighted sum score of each item, indexed by item index */
+    private int[] scores = new int[0];
+    
+    /** Importance rank of each criterion (0 for the most important one), indexed by criterion ordinal. Unordered criteria come last */
+    private int[] ranks = new int[CRITERIA_COUNT];
+    
+    /** Argument book: for each item index, mask of the criteria ranks where the item is graded GOOD or VERY_GOOD */
+    private int[] goodMasks = new int[0];
+    
+    /** Argument book: for each item index, mask of the criteria ranks where the item is graded BAD or VERY_BAD */
+    private int[] badMasks = new int[0];
     
     /** Retrieves the most important criterion, excluding of list of them */
     public Optional<EnumCriterion> getBestCriterionExcept(ArrayList<EnumCriterion> blackList) {
@@ -30,87 +65,119 @@ public class Preferences {
         return Optional.empty();
     }
     
+    /** Retrieves the importance rank of a criterion, 0 being the most important one. Criteria that are not ordered rank after all others */
+    public int getCriterionRank(EnumCriterion criterion) {
+        return ranks[criterion.ordinal()];
+    }
+    
+    /** Retrieves the criterion at a given importance rank */
+    public EnumCriterion getCriterionAtRank(int rank) {
+        return criteria.get(rank);
+    }
+    
+    /** Converts a mask of criteria ordinals into a mask of their importance ranks, leaving out criteria that are not ordered */
+    public int toRankMask(int criteriaMask) {
+        int rankMask = 0;
+        for (int c = 0; c < CRITERIA_COUNT; c++) {
+            if ((criteriaMask & 1 << c) != 0 && ranks[c] < criteria.size()) {
+                rankMask |= 1 << ranks[c];
+            }
+        }
+        return rankMask;
+    }
+    
+    /** Retrieves the mask of the criteria ranks where an item is graded GOOD or VERY_GOOD (pro arguments), or BAD or VERY_BAD (con arguments).
+     * The lowest bit is the most important criterion, so the best criterion to argue with is the lowest bit set. */
+    public int getArgumentMask(Item item, boolean pro) {
+        int index = rowOf(item);
+        if (index == NO_ROW) {
+            return 0;
+        }
+        return pro ? goodMasks[index] : badMasks[index];
+    }
+    
     /** Retrieves an integer representation of a criterion importance */
     private int criterionImportance(EnumCriterion criterion) {
-        int i = criteria.indexOf(criterion);
-        return i == -1 ? 0 : criteria.size() - i;
+        return importances[criterion.ordinal()];
     }
     
     /** Retrieves the score of an item at a given criterion. Returns an empty Optional if not value for this item and criterion */
     public Optional<EnumValue> getScoreAtCriterion(Item item, EnumCriterion criterion) {
-        Optional<CriterionValue> critValue = values.stream().filter(cv -> cv.getItem().equals(item) && cv.getCriterion() == criterion).findFirst();
-        if (critValue.isPresent()) {
-            return Optional.of(critValue.get().getValue());
-        } else {
+        int index = rowOf(item);
+        if (index == NO_ROW) {
             return Optional.empty();
         }
+        
+        byte grade = grades[index * CRITERIA_COUNT + criterion.ordinal()];
+        if (grade == NO_GRADE) {
+            return Optional.empty();
+        } else {
+            return Optional.of(VALUES[grade]);
+        }
     }
     
     /** Computes the weighted sum score of an item */
     public int computeScore(Item item) {
-        int score = 0;
-        
-        for (CriterionValue criterionValue : values) {
-            if (criterionValue.getItem().equals(item)) {
-                score += criterionValue.getValue().getValue() * criterionImportance(criterionValue.getCriterion());
-            }
+        int index = rowOf(item);
+        return index == NO_ROW ? 0 : scores[index];
+    }
+    
+    /** Retrieves the row of an item in the grade matrix, NO_ROW if the item is not evaluated */
+    private int rowOf(Item item) {
+        return item.getId() < rows.length ? rows[item.getId()] : NO_ROW;
+    }
+    
+    /** Marks the ids of a list of items */
+    private static BitSet idsOf(List<Item> itemList) {
+        BitSet ids = new BitSet();
+        for (Item item : itemList) {
+            ids.set(item.getId());
         }
-        
-        return score;
+        return ids;
     }
     
     /** Retrieves the list of evaluated items */
     public ArrayList<Item> getItems() {
-        return getItems(new ArrayList<Item>());
+        return new ArrayList<>(items);
     }
     
     /** Retrieves the list of evaluated items, minus a given blacklist */
     public ArrayList<Item> getItems(ArrayList<Item> blackList) {
-        ArrayList<Item> items = new ArrayList<>();
+        BitSet excluded = idsOf(blackList);
+        ArrayList<Item> result = new ArrayList<>();
         
-        for (CriterionValue val : values)
-            if (!items.contains(val.getItem()) && !blackList.contains(val.getItem()))
-                items.add(val.getItem());
+        for (Item item : items)
+            if (!excluded.get(item.getId()))
+                result.add(item);
         
-        return items;
+        return result;
     }
     
     /** Find the best item (based on score) among a whitelist of items. Can return an empty Optional if no item in whitelist. */
     public Optional<Item> findBest(ArrayList<Item> whiteList) {
-        ArrayList<Item> items = new ArrayList<>();
-        
-        for (Item item : getItems()) {
-            if (whiteList.contains(item)) {
-                items.add(item);
-            }
-        }
-        
-        if (items.size() == 0) {
-            return Optional.empty();
-        }
+        BitSet allowed = idsOf(whiteList);
         
         int maxScore = 0;
         Item bestItem = null;
-        for (Item item : items) {
-            int score = computeScore(item);
-            if (bestItem == null || score > maxScore) {
-                maxScore = score;
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (allowed.get(item.getId()) && (bestItem == null || scores[i] > maxScore)) {
+                maxScore = scores[i];
                 bestItem = item;
             }
         }
         
-        return Optional.of(bestItem);
+        return Optional.ofNullable(bestItem);
     }
 
     /** Checks if a given item is acceptable. The rule is that the item must be in the top 10% of the given item list */
     public boolean canAccept(Item item, ArrayList<Item> items) {
         
         // Computing scores of the list and sorting them
-        ArrayList<Integer> scores = new ArrayList<>();
-        for (Item it : items) {
-            scores.add(computeScore(it));
+        int[] sortedScores = new int[items.size()];
+        for (int i = 0; i < sortedScores.length; i++) {
+            sortedScores[i] = computeScore(items.get(i));
         }
-        Integer[] sortedScores = scores.toArray(new Integer[scores.size()]);
         Arrays.sort(sortedScores);
         
         // Extracting the top 10% rank score
@@ -127,15 +194,106 @@ public class Preferences {
         return criterionImportance(criterionA) > criterionImportance(criterionB);
     }
     
+    /** Registers the grade of an item on a criterion, keeping the grade matrix and the cached score of the item up to date */
+    private void setGrade(Item item, EnumCriterion criterion, EnumValue value) {
+        int index = rowOf(item);
+        if (index == NO_ROW) {
+            index = items.size();
+            items.add(item);
+            if (item.getId() >= rows.length) {
+                int oldLength = rows.length;
+                rows = Arrays.copyOf(rows, Math.max(item.getId() + 1, 2 * rows.length));
+                Arrays.fill(rows, oldLength, rows.length, NO_ROW);
+            }
+            rows[item.getId()] = index;
+            
+            // Growing the matrix by doubling its capacity, new cells are not graded yet
+            if (grades.length < items.size() * CRITERIA_COUNT) {
+                int oldLength = grades.length;
+                grades = Arrays.copyOf(grades, Math.max(items.size(), 2 * scores.length) * CRITERIA_COUNT);
+                scores = Arrays.copyOf(scores, grades.length / CRITERIA_COUNT);
+                goodMasks = Arrays.copyOf(goodMasks, scores.length);
+                badMasks = Arrays.copyOf(badMasks, scores.length);
+                Arrays.fill(grades, oldLength, grades.length, NO_GRADE);
+            }
+        }
+        
+        int cell = index * CRITERIA_COUNT + criterion.ordinal();
+        if (grades[cell] != NO_GRADE) {
+            scores[index] -= VALUES[grades[cell]].getValue() * criterionImportance(criterion);
+        }
+        grades[cell] = (byte) value.ordinal();
+        scores[index] += value.getValue() * criterionImportance(criterion);
+        updateArgumentBook(index, criterion.ordinal());
+    }
+    
+    /** Updates the argument book entries of an item for one criterion, from its grade in the matrix */
+    private void updateArgumentBook(int index, int criterionOrdinal) {
+        int rank = ranks[criterionOrdinal];
+        if (rank >= criteria.size()) {
+            return;
+        }
+        
+        goodMasks[index] &= ~(1 << rank);
+        badMasks[index] &= ~(1 << rank);
+        
+        byte grade = grades[index * CRITERIA_COUNT + criterionOrdinal];
+        if (grade != NO_GRADE) {
+            if (VALUES[grade].getValue() >= EnumValue.GOOD.getValue()) {
+                goodMasks[index] |= 1 << rank;
+            } else {
+                badMasks[index] |= 1 << rank;
+            }
+        }
+    }
+    
+    /** Recomputes criteria importances and ranks from their ordering, and then every cached score and the argument book */
+    private void updateImportances() {
+        Arrays.fill(importances, 0);
+        Arrays.fill(ranks, criteria.size());
+        for (int i = 0; i < criteria.size(); i++) {
+            importances[criteria.get(i).ordinal()] = criteria.size() - i;
+            ranks[criteria.get(i).ordinal()] = i;
+        }
+        
+        for (int index = 0; index < items.size(); index++) {
+            int score = 0;
+            for (int c = 0; c < CRITERIA_COUNT; c++) {
+                byte grade = grades[index * CRITERIA_COUNT + c];
+                if (grade != NO_GRADE) {
+                    score += VALUES[grade].getValue() * importances[c];
+                }
+            }
+            scores[index] = score;
+            
+            goodMasks[index] = 0;
+            badMasks[index] = 0;
+            for (int c = 0; c < CRITERIA_COUNT; c++) {
+                updateArgumentBook(index, c);
+            }
+        }
+    }
+    
     /** Initializes preferences for a given list of items randomly, using all known criteria */
     public void randomize(ArrayList<Item> items) {
+        randomize(items, new Random());
+    }
+    
+    /** Initializes preferences for a given list of items randomly, drawing from a given generator so that a seed gives the same preferences */
+    public void randomize(ArrayList<Item> items, Random random) {
+        randomize(items, random, CRITERIA_COUNT);
+    }
+    
+    /** Initializes preferences for a given list of items randomly, using a given number of criteria drawn among the known ones */
+    public void randomize(ArrayList<Item> items, Random random, int criteriaCount) {
         List<EnumCriterion> critList = Arrays.asList(EnumCriterion.values());
-        Collections.shuffle(critList);
-        criteria = new ArrayList<>(critList);
+        Collections.shuffle(critList, random);
+        criteria = new ArrayList<>(critList.subList(0, Math.max(1, Math.min(criteriaCount, CRITERIA_COUNT))));
+        updateImportances();
         
         for(Item it : items)
             for (EnumCriterion crit : criteria)
-                values.add(new CriterionValue(it, crit, EnumValue.pickRandom()));
+                setGrade(it, crit, EnumValue.pickRandom(random));
     }
     
     /** Initializes preferences for a given list of items from a given preference file.
@@ -147,6 +305,9 @@ public class Preferences {
             scanner = new Scanner(file);
             int line = 0;
             
+            // Only the given items can be graded
+            BitSet knownItems = idsOf(items);
+            
             while (scanner.hasNextLine()) {
                 line++;
                 
@@ -169,6 +330,7 @@ public class Preferences {
                                 return false;
                             }
                         }
+                        updateImportances();
                     
                     // If line is describing item evaluations
                     } else {
@@ -176,12 +338,9 @@ public class Preferences {
                         if (elements.length == 2) {
                             
                             String itemName = elements[0];
-                            Item item = null;
-                            for (Item it : items) {
-                                if (it.getName().equals(itemName)) {
-                                    item = it;
-                                    break;
-                                }
+                            Item item = ItemRegistry.findByName(itemName);
+                            if (item != null && !knownItems.get(item.getId())) {
+                                item = null;
                             }
                             
                             if (item != null) {
@@ -231,7 +390,7 @@ public class Preferences {
                                             }
                                             
                                             // Valid criterion value parsed
-                                            values.add(new CriterionValue(item, optCrit.get(), optValue.get()));
+                                            setGrade(item, optCrit.get(), optValue.get());
                                             
                                         } else {
                                             // ERROR: Syntax error on criterion value
@@ -293,7 +452,7 @@ public class Preferences {
         }
         result = result.substring(0, result.length() - 3) + "\n";
         
-        for (Item item : getItems()) {
+        for (Item item : items) {
             result += "\n" + item.getName() + ":\n";
             for (EnumCriterion criterion : criteria) {
                 result += "\t" + criterion.getName() + " = " + getScoreAtCriterion(item, criterion).get() + "\n";
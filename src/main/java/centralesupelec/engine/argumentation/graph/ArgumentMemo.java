@@ -0,0 +1,47 @@
+package centralesupelec.engine.argumentation.graph;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import centralesupelec.engine.argumentation.Argument;
+import centralesupelec.engine.argumentation.Item;
+
+/** Per-agent memo of the arguments generated for proposal branches.
+ * The best argument for a branch only depends on the item, on whether the agent can accept it, on the criterion of the leaf argument
+ * and on the criteria forbidden along the branch, so a generated argument (or the lack of one) is kept under these inputs.
+ * None of them depends on the items remaining in a negotiation, so the negotiations over the same catalog share the memo.
+ * Simulated graphs share branch nodes with the real graph, so they hit the same entries. The memo can be read from several threads.
+ *
+ * @author Thomas Lamson
+ */
+public class ArgumentMemo {
+    /** Generated arguments by item, then by packed branch key */
+    private Map<Item, Map<Integer, Optional<Argument>>> arguments = new ConcurrentHashMap<>();
+    
+    /** Packs the inputs of the argument generation for a branch into a key */
+    public static int branchKey(boolean canAccept, ArgumentNode leaf) {
+        if (leaf == null) {
+            return canAccept ? 1 : 0;
+        }
+        int leafCriterion = leaf.getArgument().getValuePremise().getCriterion().ordinal() + 1;
+        return (canAccept ? 1 : 0) | leafCriterion << 1 | leaf.getForbiddenCriteria() << 4;
+    }
+    
+    /** Returns the argument memorized for a branch of an item, generating and memorizing it if it is unknown */
+    public Optional<Argument> get(Item item, int branchKey, Supplier<Optional<Argument>> generator) {
+        return arguments.computeIfAbsent(item, i -> new ConcurrentHashMap<>())
+                        .computeIfAbsent(branchKey, k -> generator.get());
+    }
+    
+    /** Forgets the arguments of an item that left the catalog */
+    public void removeItem(Item item) {
+        arguments.remove(item);
+    }
+    
+    /** Forgets every memorized argument */
+    public void clear() {
+        arguments.clear();
+    }
+}
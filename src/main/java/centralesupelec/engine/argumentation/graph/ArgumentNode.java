@@ -1,79 +1,50 @@
 package centralesupelec.engine.argumentation.graph;
 
-import java.util.Optional;
-
 import centralesupelec.engine.argumentation.Argument;
 
-/** A node in the argumentation graph that represents an argument and attacks or support another node
+/** A node in the argumentation graph that represents an argument and attacks or support another node.
+ * Nodes are immutable and only point to the node they answer, so a branch can be extended by several graphs
+ * (a graph and its simulated copies) while sharing all of its previous nodes.
  *
  * @author Thomas Lamson
  */
 public class ArgumentNode {
     private Argument argument;
-    private ArgumentNode attackedBy = null;
+    /** The node this argument attacks, null if the argument directly supports the proposal */
+    private ArgumentNode attacked;
+    /** Position of the node in its branch, 1 for the argument supporting the proposal */
+    private int depth;
+    /** Bitmask (by criterion ordinal) of the criteria stated as inferior by the criterion premises of the branch up to this node.
+     * These criteria cannot be used anymore as the superior criterion of a new argument in the branch. */
+    private int forbiddenCriteria;
     
-    /** Create an ArgumentNode without parent */
+    /** Create an ArgumentNode supporting a proposal */
     public ArgumentNode(Argument argumentIn) {
-        argument = argumentIn;
+        this(argumentIn, null);
     }
     
     /** Create an ArgumentNode attacking another ArgumentNode */
-    public ArgumentNode(Argument argumentIn, ArgumentNode parentArgument) {
-        argument = argumentIn;
-        parentArgument.attackedBy = this;
-    }
-    
-    /** Create an ArgumentNode supporting a ProposalNode */
-    public ArgumentNode(Argument argumentIn, ProposalNode parentProposal) {
+    public ArgumentNode(Argument argumentIn, ArgumentNode attackedIn) {
         argument = argumentIn;
-        parentProposal.setDefendedBy(this);
-    }
-    
-    /** Boolean check to see if this node is in winning state in its branch */
-    public boolean isWinning() {
-        if (attackedBy == null) {
-            return true;
-        } else {
-            return !attackedBy.isWinning();
-        }
-    }
-    
-    /** Recursive getter of last node of the branch */
-    public Optional<ArgumentNode> getLeafArgument() {
-        if (attackedBy == null) {
-            return Optional.of(this);
-        } else {
-            return attackedBy.getLeafArgument();
+        attacked = attackedIn;
+        depth = attacked == null ? 1 : attacked.depth + 1;
+        
+        forbiddenCriteria = attacked == null ? 0 : attacked.forbiddenCriteria;
+        if (argument.getCriterionPremise() != null) {
+            forbiddenCriteria |= 1 << argument.getCriterionPremise().getInferiorCriterion().ordinal();
         }
     }
     
-    /** Checks that a given argument can be added at the end of the branch.
-     * It should always be stronger than any argument of the branch, and it should attack the last one. */
+    /** Checks that a given argument can be added after this node, that must be the last one of its branch.
+     * It should always be stronger than any argument of the branch, and it should attack the last one.
+     * Attacking requires a criterion premise, so being stronger than the branch only depends on its forbidden criteria. */
     public boolean canAddArgument(Argument argIn) {
-        if (attackedBy == null) {
-            // The argument must be stronger than and attack the last one of the branch to be added
-            return argIn.isStrongerThan(argument) && argIn.isAttacking(argument);
-        } else {
-            // The argument must be stronger than every argument along the branch to be added
-            return argIn.isStrongerThan(argument) && attackedBy.canAddArgument(argIn);
-        }
-    }
-    
-    /** Recursively pass an argument to the leaf node of the branch and add it there */
-    public void addArgument(Argument argIn) {
-        if (attackedBy == null) {
-            attackedBy = new ArgumentNode(argIn, this);
-        } else {
-            attackedBy.addArgument(argIn);
-        }
+        return argIn.isAttacking(argument)
+                && (forbiddenCriteria & 1 << argIn.getCriterionPremise().getSuperiorCriterion().ordinal()) == 0;
     }
     
     public String toString() {
-        String result = argument.toString();
-        if (attackedBy != null) {
-            result += "\n\t" + attackedBy.toString();
-        }
-        return result;
+        return argument.toString();
     }
     
     // ------- GETTERS ------- // ------- SETTERS ------- //
@@ -82,7 +53,15 @@ public class ArgumentNode {
         return argument;
     }
 
-    public ArgumentNode getAttackedBy() {
-        return attackedBy;
+    public ArgumentNode getAttacked() {
+        return attacked;
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public int getForbiddenCriteria() {
+        return forbiddenCriteria;
     }
 }
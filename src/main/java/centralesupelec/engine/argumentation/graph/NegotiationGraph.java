@@ -1,41 +1,102 @@
 package centralesupelec.engine.argumentation.graph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import centralesupelec.engine.agents.EngineerAgent;
 import centralesupelec.engine.argumentation.Argument;
 import centralesupelec.engine.argumentation.EnumCriterion;
-import centralesupelec.engine.argumentation.EnumValue;
 import centralesupelec.engine.argumentation.Item;
+import centralesupelec.engine.argumentation.Preferences;
 
 /** A graph object that represents the argumentation for and against item proposals
  *
  * @author Thomas Lamson
  */
 public class NegotiationGraph {
+    
+    /** Internal class that records how to undo one change of the proposal list */
+    private class Change {
+        /** Position of the changed proposal in the list */
+        private int position;
+        
+        /** Proposal node that was replaced, null if the proposal was appended */
+        private ProposalNode previous;
+        
+        private Change(int positionIn, ProposalNode previousIn) {
+            position = positionIn;
+            previous = previousIn;
+        }
+    }
+    
     private ArrayList<ProposalNode> proposals = new ArrayList<>();
     
+    /** Marker of an item that was not proposed in the positions by id */
+    private static final int NO_POSITION = -1;
+    
+    /** Position of the first proposal of each item in the proposal list, indexed by item id. Only grows up to the highest proposed id */
+    private int[] positions = new int[0];
+    
+    /** Proposed items in proposal order, and the ones proposed by the other agent, with read-only views handed out to callers */
+    private ArrayList<Item> proposedItems = new ArrayList<>();
+    private ArrayList<Item> itemsProposedByOther = new ArrayList<>();
+    private List<Item> proposedItemsView = Collections.unmodifiableList(proposedItems);
+    private List<Item> itemsProposedByOtherView = Collections.unmodifiableList(itemsProposedByOther);
+    
+    /** Changes made since the oldest open savepoint, most recent last */
+    private ArrayList<Change> undoLog = new ArrayList<>();
+    
+    /** Number of savepoints that were not rolled back yet. Changes are only logged while there is one */
+    private int openSavepoints = 0;
+    
     public NegotiationGraph () {}
     
-    /** Clones a graph by copying every node without keeping references to original nodes.
+    /** Clones a graph. Nodes are immutable, so the copy shares every branch with the original graph and only copies the list of proposals.
      * It can be useful to test things on a graph without actually changing it. */
     public NegotiationGraph clone() {
         NegotiationGraph cloned = new NegotiationGraph();
-        
-        for (ProposalNode proposal : proposals) {
-            // We clone every proposal
-            cloned.addProposal(proposal.getItem(), proposal.isInitiatedBySelf());
-            
-            // We clone the branch of every proposal
-            ArgumentNode argument = proposal.getDefendedBy();
-            while (argument != null) {
-                cloned.addArgument(argument.getArgument());
-                argument = argument.getAttackedBy();
+        cloned.proposals.addAll(proposals);
+        cloned.positions = positions.clone();
+        cloned.proposedItems.addAll(proposedItems);
+        cloned.itemsProposedByOther.addAll(itemsProposedByOther);
+        return cloned;
+    }
+    
+    /** Creates the graph obtained by adding an argument to this graph, which is left unchanged. Only the changed branch gets a new node */
+    public NegotiationGraph withArgument(Argument argument) {
+        NegotiationGraph derived = clone();
+        derived.addArgument(argument);
+        return derived;
+    }
+    
+    /** Creates the graph obtained by adding a proposal initiated by current agent to this graph, which is left unchanged */
+    public NegotiationGraph withProposal(Item item) {
+        NegotiationGraph derived = clone();
+        derived.initiateProposal(item);
+        return derived;
+    }
+    
+    /** Marks a savepoint to speculate on the graph in place: changes made after it can be undone with rollback.
+     * Savepoints can be nested, and each one must be rolled back. */
+    public int savepoint() {
+        openSavepoints++;
+        return undoLog.size();
+    }
+    
+    /** Undoes every change made since the given savepoint. The graph is then identical to what it was when the savepoint was marked */
+    public void rollback(int savepoint) {
+        for (int i = undoLog.size() - 1; i >= savepoint; i--) {
+            Change change = undoLog.remove(i);
+            if (change.previous == null) {
+                removeLastProposal();
+            } else {
+                proposals.set(change.position, change.previous);
             }
         }
-        
-        return cloned;
+        openSavepoints--;
     }
     
     /** Registers a new proposal as initiated by current agent */
@@ -50,134 +111,147 @@ public class NegotiationGraph {
     
     /** Registers a new proposal */
     private void addProposal(Item item, boolean initiatedBySelf) {
+        if (openSavepoints > 0) {
+            undoLog.add(new Change(proposals.size(), null));
+        }
+        if (item.getId() >= positions.length) {
+            int oldLength = positions.length;
+            positions = Arrays.copyOf(positions, Math.max(item.getId() + 1, 2 * positions.length));
+            Arrays.fill(positions, oldLength, positions.length, NO_POSITION);
+        }
+        if (positions[item.getId()] == NO_POSITION) {
+            positions[item.getId()] = proposals.size();
+        }
         proposals.add(new ProposalNode(item, initiatedBySelf));
+        proposedItems.add(item);
+        if (!initiatedBySelf) {
+            itemsProposedByOther.add(item);
+        }
+    }
+    
+    /** Unregisters the last proposal, when rolling back its addition */
+    private void removeLastProposal() {
+        int position = proposals.size() - 1;
+        ProposalNode proposal = proposals.remove(position);
+        if (positions[proposal.getItem().getId()] == position) {
+            positions[proposal.getItem().getId()] = NO_POSITION;
+        }
+        proposedItems.remove(position);
+        if (!proposal.isInitiatedBySelf()) {
+            itemsProposedByOther.remove(itemsProposedByOther.size() - 1);
+        }
+    }
+    
+    /** Retrieves the proposal of a given item, or null if the item was not proposed */
+    private ProposalNode findProposal(Item item) {
+        int position = positionOf(item);
+        return position == NO_POSITION ? null : proposals.get(position);
+    }
+    
+    /** Retrieves the position of the first proposal of an item, NO_POSITION if the item was not proposed */
+    private int positionOf(Item item) {
+        return item.getId() < positions.length ? positions[item.getId()] : NO_POSITION;
     }
     
     /** Checks that an argument can be added to the tree under a certain proposal */
     public boolean canAddArgument(Argument argument) {
-        Item argumentItem = argument.getItem();
-        for (ProposalNode proposal : proposals) {
-            if (proposal.getItem().equals(argumentItem)) {
-                return proposal.canAddArgument(argument);
-            }
-        }
-        return false;
+        ProposalNode proposal = findProposal(argument.getItem());
+        return proposal != null && proposal.canAddArgument(argument);
     }
     
     /** Adds an argument to the correct branch of the node, based on the item this argument is defending or attacking */
     public void addArgument(Argument argument) {
-        for (ProposalNode proposal : proposals) {
-            if (proposal.getItem().equals(argument.getItem())) {
-                proposal.addArgument(argument);
+        int position = positionOf(argument.getItem());
+        if (position != NO_POSITION) {
+            if (openSavepoints > 0) {
+                undoLog.add(new Change(position, proposals.get(position)));
             }
+            proposals.set(position, proposals.get(position).withArgument(argument));
         }
     }
 
-    /** Retrieves all items that were proposed until now */
-    public ArrayList<Item> getProposedItems() {
-        ArrayList<Item> items = new ArrayList<>();
-        for (ProposalNode proposal : proposals) {
-            items.add(proposal.getItem());
-        }
-        return items;
+    /** Retrieves all items that were proposed until now, as a read-only view that follows the graph */
+    public List<Item> getProposedItems() {
+        return proposedItemsView;
     }
     
-    /** Retrieves all items that were proposed by other agent until now */
-    public ArrayList<Item> getItemsProposedByOther() {
-        ArrayList<Item> items = new ArrayList<>();
-        for (ProposalNode proposal : proposals) {
-            if (!proposal.isInitiatedBySelf()) {
-                items.add(proposal.getItem());
-            }
-        }
-        return items;
+    /** Retrieves all items that were proposed by other agent until now, as a read-only view that follows the graph */
+    public List<Item> getItemsProposedByOther() {
+        return itemsProposedByOtherView;
+    }
+    
+    /** Checks if a given item was proposed */
+    public boolean isProposed(Item item) {
+        return positionOf(item) != NO_POSITION;
+    }
+    
+    /** Checks if a given item was proposed by the other agent */
+    public boolean isProposedByOther(Item item) {
+        ProposalNode proposal = findProposal(item);
+        return proposal != null && !proposal.isInitiatedBySelf();
     }
     
     /** Boolean check to see if a given item proposal is supported or attacked in the current state of the graph */
     public boolean isItemWinning(Item item) {
-        for (ProposalNode proposal : proposals) {
-            if (proposal.getItem().equals(item)) {
-                return proposal.isWinning();
-            }
-        }
-        return false;
+        ProposalNode proposal = findProposal(item);
+        return proposal != null && proposal.isWinning();
     }
 
     /** Tries to generate an argument for a given item and some agent preferences. Returns empty Optional if no valid argument could be formed */
     public Optional<Argument> generateBestArgumentForItem(Item item, EngineerAgent agent) {
-        for (ProposalNode proposal : proposals) {
-            if (proposal.getItem().equals(item)) {
+        ProposalNode proposal = findProposal(item);
+        if (proposal == null) {
+            return Optional.empty();
+        }
+        
+        // Should the argument support or attack the item
+        boolean canAccept = agent.canAccept(item);
+        
+        // The argument only depends on the branch's leaf, so it is generated once per leaf and memorized
+        ArgumentNode leaf = proposal.getLeafArgument().orElse(null);
+        return agent.getArgumentMemo().get(item, ArgumentMemo.branchKey(canAccept, leaf),
+                                           () -> generateBestArgumentForBranch(proposal, canAccept, agent));
+    }
+    
+    /** Generates the best argument the agent can add to a proposal branch, supporting the item if it can accept it or attacking it otherwise.
+     * Valid criteria are read from the preferences' argument book, the best one being the lowest rank left. */
+    private static Optional<Argument> generateBestArgumentForBranch(ProposalNode proposal, boolean canAccept, EngineerAgent agent) {
+        Item item = proposal.getItem();
+        Preferences preferences = agent.getPreferences();
+        
+        // We only keep criteria where the item's value is consistent with agent's will
+        int candidateRanks = preferences.getArgumentMask(item, canAccept);
+        
+        Optional<ArgumentNode> optLeaf = proposal.getLeafArgument();
+        if (optLeaf.isPresent()) {
+            EnumCriterion leafCriterion = optLeaf.get().getArgument().getValuePremise().getCriterion();
+            
+            // We're attacking another argument: our criterion must be strictly more important than the leaf's criterion,
+            // and must not have been considered less important than another one in the branch
+            candidateRanks &= (1 << preferences.getCriterionRank(leafCriterion)) - 1;
+            candidateRanks &= ~preferences.toRankMask(optLeaf.get().getForbiddenCriteria());
+            
+            if (candidateRanks != 0) {
+                EnumCriterion criterion = preferences.getCriterionAtRank(Integer.numberOfTrailingZeros(candidateRanks));
                 
-                // Should the argument support or attack the item
-                boolean canAccept = agent.getPreferences().canAccept(item, agent.getItems());
-
-                // We only keep values that are consistent with agent's will.
-                ArrayList<EnumValue> eligibleValues = new ArrayList<>();
-                if (canAccept) {
-                    eligibleValues.add(EnumValue.GOOD);
-                    eligibleValues.add(EnumValue.VERY_GOOD);
-                } else {
-                    eligibleValues.add(EnumValue.BAD);
-                    eligibleValues.add(EnumValue.VERY_BAD);
-                }
+                // We found a valid argument
+                Argument argument = new Argument(item, canAccept);
+                argument.addValuePremise(criterion, preferences.getScoreAtCriterion(item, criterion).get());
                 
-                ArrayList<EnumCriterion> excludedCriteria = new ArrayList<>();
-                Optional<ArgumentNode> optLeaf = proposal.getLeafArgument();
-                if (optLeaf.isPresent()) {
-                    EnumCriterion leafCriterion = optLeaf.get().getArgument().getValuePremise().getCriterion();
-                    
-                    // We're attacking another argument
-                    Optional<EnumCriterion> optCriterion;
-                    while ((optCriterion = agent.getPreferences().getBestCriterionExcept(excludedCriteria)).isPresent()) {
-                        
-                        // If the leaf's criterion is better than current criterion, we can stop: we won't find another valid criterion
-                        if (agent.getPreferences().isCriterionBetter(leafCriterion, optCriterion.get())) {
-                            break;
-                        }
-                        
-                        Optional<EnumValue> optValue = agent.getPreferences().getScoreAtCriterion(item, optCriterion.get());
-                        if (optValue.isPresent() && eligibleValues.contains(optValue.get())) {
-                            
-                            // We found a valid argument
-                            Argument argument = new Argument(item, canAccept);
-                            argument.addValuePremise(optCriterion.get(), optValue.get());
-                            
-                            // We need to justify that the new criterion is better than the previous argument's criterion
-                            argument.addCriterionPreference(optCriterion.get(), leafCriterion);
-                            
-                            // Check if the argument is actually able to be added on the branch (stronger than any previous argument and attacking the last one)
-                            if (agent.getGraph().canAddArgument(argument)) {
-                                
-                                // We found a valid argument
-                                return Optional.of(argument);
-                            }
-                        }
-                        
-                        // We try with next criterion available
-                        excludedCriteria.add(optCriterion.get());
-                    }
-                    
-                } else if (canAccept) {
-                    
-                    // We're in an undefended proposal case, and we assert that we should defend it
-                    Optional<EnumCriterion> optCriterion;
-                    while ((optCriterion = agent.getPreferences().getBestCriterionExcept(excludedCriteria)).isPresent()) {
-                        
-                        // We check if the item has a positive value on current criterion
-                        Optional<EnumValue> optValue = agent.getPreferences().getScoreAtCriterion(item, optCriterion.get());
-                        if (optValue.isPresent() && eligibleValues.contains(optValue.get())) {
-                            
-                            // We found a valid argument
-                            Argument argument = new Argument(item, true);
-                            argument.addValuePremise(optCriterion.get(), optValue.get());
-                            return Optional.of(argument);
-                        }
-                        
-                        // We try with next criterion available
-                        excludedCriteria.add(optCriterion.get());
-                    }
-                }
+                // We need to justify that the new criterion is better than the previous argument's criterion
+                argument.addCriterionPreference(criterion, leafCriterion);
+                return Optional.of(argument);
             }
+            
+        } else if (canAccept && candidateRanks != 0) {
+            
+            // We're in an undefended proposal case, and we assert that we should defend it with the best positive criterion
+            EnumCriterion criterion = preferences.getCriterionAtRank(Integer.numberOfTrailingZeros(candidateRanks));
+            
+            // We found a valid argument
+            Argument argument = new Argument(item, true);
+            argument.addValuePremise(criterion, preferences.getScoreAtCriterion(item, criterion).get());
+            return Optional.of(argument);
         }
         
         // For any reason, a valid argument couldn't be generated to support agent's preferences on this item.
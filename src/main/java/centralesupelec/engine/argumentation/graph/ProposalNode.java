@@ -1,64 +1,67 @@
 package centralesupelec.engine.argumentation.graph;
 
+import java.util.ArrayList;
 import java.util.Optional;
 
 import centralesupelec.engine.argumentation.Argument;
 import centralesupelec.engine.argumentation.Item;
 
-/** A node in the argumentation graph that represents a proposal and is at the root of a branch
+/** A node in the argumentation graph that represents a proposal and is at the root of a branch.
+ * A proposal node is immutable: adding an argument creates a new proposal node that shares the previous branch.
  *
  * @author Thomas Lamson
  */
 public class ProposalNode {
     private Item item;
-    private ArgumentNode defendedBy = null;
+    /** The last argument of the branch, null if the proposal is not defended yet */
+    private ArgumentNode leaf = null;
     /** Was this proposal initiated by current agent? */
     private boolean initiatedBySelf;
     
     public ProposalNode(Item itemIn, boolean initiatedBySelfIn) {
+        this(itemIn, initiatedBySelfIn, null);
+    }
+    
+    private ProposalNode(Item itemIn, boolean initiatedBySelfIn, ArgumentNode leafIn) {
         item = itemIn;
         initiatedBySelf = initiatedBySelfIn;
+        leaf = leafIn;
     }
 
-    /** Is this proposal currently in a winning state (supported by a winning argument) */
+    /** Is this proposal currently in a winning state (supported by a winning argument).
+     * The last argument of the branch is always winning, so the supporting argument wins when the branch length is odd. */
     public boolean isWinning() {
-        if (defendedBy == null) {
-            return false;
-        } else {
-            return defendedBy.isWinning();
-        }
+        return leaf != null && leaf.getDepth() % 2 == 1;
     }
     
     /** Retrieves the last ArgumentNode of the branch, or empty Optional if proposal is not defended yet */
     public Optional<ArgumentNode> getLeafArgument() {
-        if (defendedBy != null) {
-            return defendedBy.getLeafArgument();
-        }
-        return Optional.empty();
+        return Optional.ofNullable(leaf);
     }
     
     /** Checks if a given argument can be added to the end of the branch */
     public boolean canAddArgument(Argument argIn) {
-        if (defendedBy == null) {
+        if (leaf == null) {
             return true;
         } else {
-            return defendedBy.canAddArgument(argIn);
+            return leaf.canAddArgument(argIn);
         }
     }
     
-    /** Adds the argument to the end of the branch. */
-    public void addArgument(Argument argIn) {
-        if (defendedBy == null) {
-            defendedBy = new ArgumentNode(argIn, this);
-        } else {
-            defendedBy.addArgument(argIn);
-        }
+    /** Creates the proposal node obtained by adding the argument to the end of the branch. This node is left unchanged. */
+    public ProposalNode withArgument(Argument argIn) {
+        return new ProposalNode(item, initiatedBySelf, new ArgumentNode(argIn, leaf));
     }
     
     public String toString() {
+        ArrayList<ArgumentNode> branch = new ArrayList<>();
+        for (ArgumentNode node = leaf; node != null; node = node.getAttacked()) {
+            branch.add(0, node);
+        }
+        
         String result = "Proposal: " + item.getName();
-        if (defendedBy != null) {
-            result += "\n\t" + defendedBy.toString();
+        for (ArgumentNode node : branch) {
+            result += "\n\t" + node.toString();
         }
         return result;
     }
@@ -72,12 +75,4 @@ public class ProposalNode {
     public boolean isInitiatedBySelf() {
         return initiatedBySelf;
     }
-
-    public ArgumentNode getDefendedBy() {
-        return defendedBy;
-    }
-    
-    public void setDefendedBy(ArgumentNode argument) {
-        defendedBy = argument;
-    }
 }
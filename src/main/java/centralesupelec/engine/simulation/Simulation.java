@@ -0,0 +1,203 @@
+package centralesupelec.engine.simulation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import centralesupelec.engine.agents.EngineerAgent;
+import centralesupelec.engine.agents.ManagerAgent;
+import centralesupelec.engine.agents.MessageTransport;
+import centralesupelec.engine.argumentation.Item;
+import centralesupelec.engine.argumentation.Preferences;
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.Behaviour;
+import jade.lang.acl.ACLMessage;
+
+/** A negotiation run without JADE: a manager and its engineer agents driven in a single thread by a discrete-event scheduler.
+ * Messages are delivered directly to the queue of each receiver after a fixed latency of a virtual clock, in the order they were sent,
+ * and each delivery activates the receiver until its behaviour blocks. Agents keep their whole decision logic (see setupHeadless),
+ * so the same catalog, preferences, protocol and seed give the same transcript as the Launcher with JADE.
+ *
+ * @author Thomas Lamson
+ */
+public class Simulation implements MessageTransport {
+    /** Local name of the manager, as in the Launcher */
+    public static final String MANAGER_NAME = "manager";
+    
+    /** Platform name of the agents, which can't use local names without a JADE platform */
+    public static final String PLATFORM_NAME = "simulation";
+    
+    /** Virtual time taken by a message to reach its receivers, when not set */
+    public static final long DEFAULT_LATENCY = 1;
+    
+    /** Number of messages after which a negotiation is stopped, when not set */
+    public static final long DEFAULT_MAX_MESSAGES = 1000000;
+    
+    private ArrayList<Item> catalog;
+    /** Preferences of each engineer, null ones being randomized from the seed */
+    private Preferences[] preferences;
+    /** Protocol file followed by the engineers, null for the default protocol */
+    private String protocolPath;
+    private long seed;
+    
+    private long latency = DEFAULT_LATENCY;
+    private long maxMessages = DEFAULT_MAX_MESSAGES;
+    /** Receives the transcript of the negotiation, discarded by default */
+    private Consumer<String> output = line -> {};
+    
+    /** Agents of the simulation, by identifier */
+    private LinkedHashMap<AID, Participant> participants = new LinkedHashMap<>();
+    private ManagerAgent manager;
+    
+    /** Messages waiting for their delivery time, by delivery time then sending order */
+    private PriorityQueue<Delivery> deliveries = new PriorityQueue<>();
+    
+    /** Current virtual time */
+    private long clock = 0;
+    /** Number of messages sent */
+    private long messageCount = 0;
+    /** Number of deliveries scheduled, one for each receiver of each message, ordering the deliveries of the same time */
+    private long scheduledCount = 0;
+    /** Number of deliveries performed */
+    private long deliveryCount = 0;
+    
+    /** Creates a negotiation of a catalog between as many engineers as given preferences. Null preferences are randomized from the seed */
+    public Simulation(ArrayList<Item> catalogIn, Preferences[] preferencesIn, String protocolPathIn, long seedIn) {
+        catalog = catalogIn;
+        preferences = preferencesIn;
+        protocolPath = protocolPathIn;
+        seed = seedIn;
+    }
+    
+    /** Sets up the agents and runs the negotiation until no message is left to deliver, or until the maximal number of messages.
+     * Returns true if every item of the catalog was selected */
+    public boolean run() {
+        // Agents are named and seeded as by the Launcher: engineerN gets seed + N, the manager gets the seed itself
+        // Lines printed at setup are not part of the transcript
+        for (int i = 0; i < preferences.length; i++) {
+            EngineerAgent engineer = new EngineerAgent();
+            Object[] args = preferences[i] != null ? new Object[] {catalog, preferences[i], protocolPath}
+                                                   : new Object[] {catalog, null, protocolPath, seed + i + 1};
+            AID aid = new AID(AID.createGUID(ManagerAgent.ENGINEER_PREFIX + (i + 1), PLATFORM_NAME), AID.ISGUID);
+            engineer.setOutput(line -> {});
+            engineer.setupHeadless(aid, this, args);
+            engineer.setOutput(output);
+            participants.put(aid, new Participant(engineer, engineer.getNegotiateBehaviour(), engineer::isFinished));
+        }
+        
+        manager = new ManagerAgent();
+        AID managerAID = new AID(AID.createGUID(MANAGER_NAME, PLATFORM_NAME), AID.ISGUID);
+        manager.setOutput(line -> {});
+        manager.setupHeadless(managerAID, this, new Object[] {catalog, preferences.length, seed});
+        manager.setOutput(output);
+        participants.put(managerAID, new Participant(manager, manager.getManagerBehaviour(), manager::isFinished));
+        
+        // Agents are started in creation order, engineers first
+        for (Participant participant : participants.values()) {
+            participant.activate();
+        }
+        
+        while (!deliveries.isEmpty() && messageCount < maxMessages) {
+            Delivery delivery = deliveries.poll();
+            clock = delivery.time;
+            deliveryCount++;
+            delivery.receiver.agent.postMessage(delivery.msg);
+            delivery.receiver.activate();
+        }
+        
+        return manager.isFinished();
+    }
+    
+    /** Schedules the delivery of a message to each of its receivers. Messages to unknown agents are lost, as in a container.
+     * As in a container, each receiver gets its own copy, so that neither the sender nor another receiver can modify the message it handles */
+    public void send(ACLMessage msg) {
+        messageCount++;
+        Iterator<?> it = msg.getAllReceiver();
+        while (it.hasNext()) {
+            Participant receiver = participants.get(it.next());
+            if (receiver != null) {
+                deliveries.add(new Delivery(clock + latency, scheduledCount++, (ACLMessage) msg.clone(), receiver));
+            }
+        }
+    }
+    
+    // ------- GETTERS ------- // ------- SETTERS ------- //
+    
+    /** Retrieves the items selected by the manager, in order of their selection */
+    public ArrayList<Item> getSelectedItems() {
+        return manager.getSelectedItems();
+    }
+    
+    /** Retrieves the number of negotiation cycles begun by the manager, one for each catalog broadcast */
+    public int getCycleCount() {
+        return manager.getCatalogVersion();
+    }
+    
+    public long getClock() {
+        return clock;
+    }
+    
+    public long getMessageCount() {
+        return messageCount;
+    }
+    
+    public long getDeliveryCount() {
+        return deliveryCount;
+    }
+    
+    public void setLatency(long latencyIn) {
+        latency = latencyIn;
+    }
+    
+    public void setMaxMessages(long maxMessagesIn) {
+        maxMessages = maxMessagesIn;
+    }
+    
+    /** Sets the receiver of the transcript, before running the negotiation */
+    public void setOutput(Consumer<String> outputIn) {
+        output = outputIn;
+    }
+    
+    /** An agent of the simulation, with the behaviour handling its messages */
+    private static class Participant {
+        private Agent agent;
+        private Behaviour behaviour;
+        private BooleanSupplier finished;
+        
+        Participant(Agent agentIn, Behaviour behaviourIn, BooleanSupplier finishedIn) {
+            agent = agentIn;
+            behaviour = behaviourIn;
+            finished = finishedIn;
+        }
+        
+        /** Runs the behaviour of the agent until it blocks, waiting for a message, or until the agent stops */
+        void activate() {
+            while (!finished.getAsBoolean() && behaviour.isRunnable()) {
+                behaviour.action();
+            }
+        }
+    }
+    
+    /** A message to deliver to one of its receivers at a given virtual time */
+    private static class Delivery implements Comparable<Delivery> {
+        private long time;
+        private long order;
+        private ACLMessage msg;
+        private Participant receiver;
+        
+        Delivery(long timeIn, long orderIn, ACLMessage msgIn, Participant receiverIn) {
+            time = timeIn;
+            order = orderIn;
+            msg = msgIn;
+            receiver = receiverIn;
+        }
+        
+        public int compareTo(Delivery other) {
+            return time != other.time ? Long.compare(time, other.time) : Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package centralesupelec.engine.simulation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import centralesupelec.engine.argumentation.Item;
+import centralesupelec.engine.argumentation.Preferences;
+import centralesupelec.engine.state_machine.actions.ParallelEvaluation;
+
+/** Runs a batch of independent negotiations (see Simulation) over a catalog, between panels of engineers taken from a population
+ * of preference profiles. Negotiations are split between the workers of a work-stealing pool, one per core by default,
+ * and the outcome of each one is written as a line of a CSV file as soon as it is over.
+ * The preferences are loaded once and only read by the negotiations, so they are shared between all workers.
+ *
+ * @author Thomas Lamson
+ */
+public class Tournament {
+    /** Header of the results file. Panels are the profile indices of the engineers, selected items are in order of their selection */
+    public static final String RESULTS_HEADER = "negotiation,panel,seed,completed,cycles,messages,virtual_time,wall_time_us,selected";
+    
+    /** Number of negotiations below which a worker runs them instead of splitting them with other workers */
+    private static final int SPLIT_THRESHOLD = 4;
+    
+    private ArrayList<Item> catalog;
+    /** The population of preference profiles */
+    private ArrayList<Preferences> profiles;
+    /** Panels of the negotiations, as profile indices */
+    private ArrayList<int[]> schedule;
+    /** Number of times each panel negotiates, with different seeds */
+    private int repeats = 1;
+    /** Seed of the first negotiation, the next ones using the next seeds */
+    private long seed = 0;
+    /** Protocol file followed by the engineers, null for the default protocol */
+    private String protocolPath;
+    
+    /** Number of negotiations over, and of those that selected every item */
+    private LongAdder finished = new LongAdder();
+    private LongAdder completed = new LongAdder();
+    
+    public Tournament(ArrayList<Item> catalogIn, ArrayList<Preferences> profilesIn, ArrayList<int[]> scheduleIn) {
+        catalog = catalogIn;
+        profiles = profilesIn;
+        schedule = scheduleIn;
+    }
+    
+    /** Runs every negotiation on a pool of a given number of workers, writing the results line of each one as soon as it is over */
+    public void run(int threads, Writer results) throws IOException {
+        results.write(RESULTS_HEADER);
+        results.write('\n');
+        results.flush();
+        
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new Batch(0, getNegotiationCount(), results));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /** Runs one negotiation and writes its results line */
+    private void runNegotiation(int index, Writer results) {
+        int[] panel = schedule.get(index / repeats);
+        long negotiationSeed = seed + index;
+        
+        Preferences[] preferences = new Preferences[panel.length];
+        for (int i = 0; i < panel.length; i++) {
+            preferences[i] = profiles.get(panel[i]);
+        }
+        
+        long start = System.nanoTime();
+        Simulation simulation = new Simulation(catalog, preferences, protocolPath, negotiationSeed);
+        boolean success = simulation.run();
+        long wallTime = System.nanoTime() - start;
+        
+        StringBuilder line = new StringBuilder();
+        line.append(index).append(',');
+        for (int i = 0; i < panel.length; i++) {
+            line.append(i > 0 ? " " : "").append(panel[i]);
+        }
+        line.append(',').append(negotiationSeed).append(',').append(success).append(',').append(simulation.getCycleCount())
+            .append(',').append(simulation.getMessageCount()).append(',').append(simulation.getClock()).append(',').append(wallTime / 1000).append(',');
+        ArrayList<Item> selected = simulation.getSelectedItems();
+        for (int i = 0; i < selected.size(); i++) {
+            line.append(i > 0 ? "|" : "").append(selected.get(i).getName());
+        }
+        line.append('\n');
+        
+        // Lines are formatted by each worker, only their writing is serialized. Each line is flushed, so that the results of
+        // an interrupted tournament are kept and a running one can be followed
+        try {
+            synchronized (results) {
+                results.write(line.toString());
+                results.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        
+        finished.increment();
+        if (success) {
+            completed.increment();
+        }
+    }
+    
+    /** A range of negotiations, split in halves that idle workers can steal until it is small enough to be run by a single worker */
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private int from;
+        private int to;
+        private transient Writer results;
+        
+        Batch(int fromIn, int toIn, Writer resultsIn) {
+            from = fromIn;
+            to = toIn;
+            results = resultsIn;
+        }
+        
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    runNegotiation(i, results);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Batch(from, middle, results), new Batch(middle, to, results));
+            }
+        }
+    }
+    
+    /** Builds the schedule where every pair of profiles negotiates */
+    public static ArrayList<int[]> allPairs(int profileCount) {
+        ArrayList<int[]> pairs = new ArrayList<>();
+        for (int i = 0; i < profileCount; i++) {
+            for (int j = i + 1; j < profileCount; j++) {
+                pairs.add(new int[] {i, j});
+            }
+        }
+        return pairs;
+    }
+    
+    /** Reads a schedule file: one panel per line, as profile indices separated by spaces or commas. Empty lines and lines beginning with # are ignored.
+     * Returns an empty Optional if any problem was encountered and prints a detailed error message. */
+    public static Optional<ArrayList<int[]>> loadSchedule(String filePath, int profileCount) {
+        ArrayList<int[]> schedule = new ArrayList<>();
+        Scanner scanner = null;
+        try {
+            scanner = new Scanner(new File(filePath));
+            int line = 0;
+            while (scanner.hasNextLine()) {
+                line++;
+                String cleanLine = scanner.nextLine().trim();
+                if (cleanLine.startsWith("#") || cleanLine.isEmpty()) {
+                    continue;
+                }
+                
+                String[] indices = cleanLine.split("[\\s,]+");
+                int[] panel = new int[indices.length];
+                for (int i = 0; i < indices.length; i++) {
+                    try {
+                        panel[i] = Integer.parseInt(indices[i]);
+                    } catch (NumberFormatException e) {
+                        panel[i] = -1;
+                    }
+                    if (panel[i] < 0 || panel[i] >= profileCount) {
+                        // ERROR: Profile not known
+                        System.out.println("Profile \"" + indices[i] + "\" at line " + Integer.toString(line) + " of schedule \"" + filePath
+                                + "\" is not one of the " + profileCount + " profiles.");
+                        return Optional.empty();
+                    }
+                }
+                if (panel.length < 2) {
+                    // ERROR: Nobody to negotiate with
+                    System.out.println("Panel at line " + Integer.toString(line) + " of schedule \"" + filePath + "\" has less than two engineers.");
+                    return Optional.empty();
+                }
+                schedule.add(panel);
+            }
+        } catch (FileNotFoundException e) {
+            // ERROR: File not found
+            System.out.println("Schedule file at path \"" + filePath + "\" was not found.");
+            return Optional.empty();
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+        }
+        return Optional.of(schedule);
+    }
+    
+    /** Runs a tournament.
+     * @param args the arguments of the program, each one optional: "--items PATH" the catalog (data/items.txt by default),
+     *             "--preferences PATH" a preferences file added to the population (repeatable), "--random N" N random profiles added to the population,
+     *             "--schedule PATH" a schedule file (see loadSchedule, every pair of profiles by default), "--repeats R" the number of negotiations of each panel,
+     *             "--seed S" the seed of the random profiles and negotiations, "--threads T" the number of workers (one per core by default),
+     *             "--protocol PATH" the protocol file of the engineers, "--output PATH" the results file (results.csv by default),
+     *             the "--parallel" flag evaluating the candidate arguments of the engineers in parallel too (see ParallelEvaluation)
+     *             and "--parallel-min N" the minimal number of candidates evaluated in parallel (8 by default).
+     */
+    public static void main(String[] args) throws IOException {
+        String itemsPath = "data/items.txt";
+        ArrayList<String> preferencesPaths = new ArrayList<>();
+        int randomCount = 0;
+        String schedulePath = null;
+        int repeats = 1;
+        long seed = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String protocolPath = null;
+        String outputPath = "results.csv";
+        
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--parallel")) {
+                ParallelEvaluation.setEnabled(true);
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                break;
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--items": itemsPath = value; break;
+                case "--preferences": preferencesPaths.add(value); break;
+                case "--random": randomCount = Integer.parseInt(value); break;
+                case "--schedule": schedulePath = value; break;
+                case "--repeats": repeats = Math.max(1, Integer.parseInt(value)); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--threads": threads = Math.max(1, Integer.parseInt(value)); break;
+                case "--protocol": protocolPath = value; break;
+                case "--output": outputPath = value; break;
+                case "--parallel-min": ParallelEvaluation.setMinCandidates(Math.max(2, Integer.parseInt(value))); break;
+                default:
+                    System.out.println("Unknown option \"" + option + "\".");
+                    return;
+            }
+        }
+        
+        Optional<ArrayList<Item>> catalog = Item.loadFromFile(itemsPath);
+        if (!catalog.isPresent()) {
+            System.out.println("Item list file at path \"" + itemsPath + "\" was not found.");
+            return;
+        }
+        
+        // The population: preferences files first, then random profiles, seeded one after the other
+        ArrayList<Preferences> profiles = new ArrayList<>();
+        for (String preferencesPath : preferencesPaths) {
+            Preferences preferences = new Preferences();
+            if (!preferences.loadFromFile(preferencesPath, catalog.get())) {
+                return;
+            }
+            profiles.add(preferences);
+        }
+        for (int i = 0; i < randomCount; i++) {
+            Preferences preferences = new Preferences();
+            preferences.randomize(catalog.get(), new Random(seed + i));
+            profiles.add(preferences);
+        }
+        
+        Optional<ArrayList<int[]>> schedule = schedulePath != null ? loadSchedule(schedulePath, profiles.size()) : Optional.of(allPairs(profiles.size()));
+        if (!schedule.isPresent()) {
+            return;
+        }
+        
+        Tournament tournament = new Tournament(catalog.get(), profiles, schedule.get());
+        tournament.setRepeats(repeats);
+        tournament.setSeed(seed);
+        tournament.setProtocolPath(protocolPath);
+        
+        System.out.println("Tournament: " + tournament.getNegotiationCount() + " negotiations between " + profiles.size() + " profiles on "
+                + threads + " workers, results in " + outputPath + ".");
+        long start = System.nanoTime();
+        Writer results = new BufferedWriter(new FileWriter(outputPath));
+        try {
+            tournament.run(threads, results);
+        } finally {
+            results.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Tournament: " + tournament.getFinished() + " negotiations (" + tournament.getCompleted() + " selected every item) in "
+                + String.format("%.2f", seconds) + " s, " + String.format("%.0f", tournament.getFinished() / seconds) + " negotiations per second.");
+    }
+    
+    // ------- GETTERS ------- // ------- SETTERS ------- //
+    
+    /** Retrieves the number of negotiations: each panel of the schedule negotiates as many times as repeats */
+    public int getNegotiationCount() {
+        return schedule.size() * repeats;
+    }
+    
+    public long getFinished() {
+        return finished.sum();
+    }
+    
+    public long getCompleted() {
+        return completed.sum();
+    }
+    
+    public void setRepeats(int repeatsIn) {
+        repeats = repeatsIn;
+    }
+    
+    public void setSeed(long seedIn) {
+        seed = seedIn;
+    }
+    
+    public void setProtocolPath(String protocolPathIn) {
+        protocolPath = protocolPathIn;
+    }
+}
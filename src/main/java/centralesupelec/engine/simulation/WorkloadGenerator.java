@@ -0,0 +1,223 @@
+package centralesupelec.engine.simulation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import centralesupelec.engine.argumentation.EnumCriterion;
+import centralesupelec.engine.argumentation.EnumValue;
+
+/** Generates synthetic workloads: a catalog of any size (see Item.loadFromFile) and the preference files of a population of engineers
+ * (see Preferences.loadFromFile), drawn from a seed so that the same parameters always give the same files.
+ * Each item has a hidden quality on every criterion, shared by all engineers. An engineer grades an item from its perception of that quality:
+ * the quality weighted by the correlation, plus a noise of its own, shifted by the skew and cut in four grades of equal probability when the skew is 0.
+ * With a negative correlation, every other engineer perceives the opposite qualities, so that consecutive engineers disagree.
+ * Files are written item by item, the qualities being drawn again for each engineer, so that the size of a workload is only bound by the disk.
+ *
+ * @author Thomas Lamson
+ */
+public class WorkloadGenerator {
+    /** Orderings of the criteria of the engineers: independent, the same for everyone, or the same one reversed for every other engineer */
+    public enum Ordering { RANDOM, SHARED, OPPOSED }
+    
+    /** Perceptions separating the grades, the quartiles of a standard normal distribution */
+    private static final double[] GRADE_THRESHOLDS = {-0.6745, 0, 0.6745};
+    
+    private int itemCount;
+    private int engineerCount;
+    /** Number of criteria each engineer grades items on, the first ones of its ordering */
+    private int criteriaCount = EnumCriterion.values().length;
+    /** Correlation between the perceptions of two engineers, from -1 (consecutive engineers disagree) to 1 (everyone agrees) */
+    private double correlation = 0;
+    /** Shift of the perceptions: positive values make good grades more frequent, negative ones bad grades */
+    private double skew = 0;
+    private Ordering ordering = Ordering.RANDOM;
+    /** Seed of the items' qualities and of the shared ordering, engineer N drawing its own ordering and noise from seed + N */
+    private long seed = 0;
+    
+    public WorkloadGenerator(int itemCountIn, int engineerCountIn) {
+        itemCount = itemCountIn;
+        engineerCount = engineerCountIn;
+    }
+    
+    /** Writes the catalog and the preference files of every engineer in a directory: items.txt and preferences1.txt to preferencesN.txt */
+    public void generate(File directory) throws IOException {
+        directory.mkdirs();
+        Writer catalog = new BufferedWriter(new FileWriter(new File(directory, "items.txt")));
+        try {
+            writeCatalog(catalog);
+        } finally {
+            catalog.close();
+        }
+        
+        for (int engineer = 1; engineer <= engineerCount; engineer++) {
+            Writer preferences = new BufferedWriter(new FileWriter(new File(directory, "preferences" + engineer + ".txt")));
+            try {
+                writePreferences(engineer, preferences);
+            } finally {
+                preferences.close();
+            }
+        }
+    }
+    
+    /** Writes the catalog: one item per line, with its description */
+    public void writeCatalog(Writer out) throws IOException {
+        for (int i = 0; i < itemCount; i++) {
+            out.write(getItemName(i) + ";Synthetic item " + i + "\n");
+        }
+    }
+    
+    /** Writes the preference file of an engineer, numbered from 1 */
+    public void writePreferences(int engineer, Writer out) throws IOException {
+        // The world generator gives the shared ordering, then the qualities of each item in turn
+        Random world = new Random(seed);
+        List<EnumCriterion> sharedOrdering = shuffledCriteria(world);
+        Random own = new Random(seed + engineer);
+        
+        List<EnumCriterion> criteria;
+        if (ordering == Ordering.RANDOM) {
+            criteria = shuffledCriteria(own);
+        } else {
+            criteria = new ArrayList<>(sharedOrdering);
+            if (ordering == Ordering.OPPOSED && engineer % 2 == 0) {
+                Collections.reverse(criteria);
+            }
+        }
+        criteria = criteria.subList(0, Math.max(1, Math.min(criteriaCount, criteria.size())));
+        
+        // Perceptions share the weight of the quality, so that the perceptions of two engineers have the given correlation
+        double weight = Math.sqrt(Math.abs(correlation));
+        double noiseWeight = Math.sqrt(1 - Math.abs(correlation));
+        double sign = correlation < 0 && engineer % 2 == 0 ? -1 : 1;
+        
+        out.write(String.format(Locale.ROOT, "# Generated workload: seed %d, %d items, engineer %d of %d, correlation %.3f, skew %.3f, %s ordering\n\n",
+                seed, itemCount, engineer, engineerCount, correlation, skew, ordering.name().toLowerCase(Locale.ROOT)));
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < criteria.size(); i++) {
+            line.append(i > 0 ? " > " : "").append(criteria.get(i).getName());
+        }
+        out.write(line.append('\n').toString());
+        
+        EnumCriterion[] allCriteria = EnumCriterion.values();
+        double[] qualities = new double[allCriteria.length];
+        for (int item = 0; item < itemCount; item++) {
+            // Every quality is drawn, even on criteria the engineer ignores, so that all engineers see the same qualities
+            for (int c = 0; c < allCriteria.length; c++) {
+                qualities[c] = world.nextGaussian();
+            }
+            
+            line.setLength(0);
+            line.append(getItemName(item)).append(": ");
+            for (int i = 0; i < criteria.size(); i++) {
+                EnumCriterion criterion = criteria.get(i);
+                double perception = sign * weight * qualities[criterion.ordinal()] + noiseWeight * own.nextGaussian() + skew;
+                line.append(i > 0 ? ", " : "").append(criterion.getName()).append(" = ").append(toGrade(perception));
+            }
+            out.write(line.append('\n').toString());
+        }
+    }
+    
+    /** Cuts a perception in one of the grades */
+    private static EnumValue toGrade(double perception) {
+        int grade = 0;
+        while (grade < GRADE_THRESHOLDS.length && perception >= GRADE_THRESHOLDS[grade]) {
+            grade++;
+        }
+        return EnumValue.findByValue(grade).get();
+    }
+    
+    private static List<EnumCriterion> shuffledCriteria(Random random) {
+        List<EnumCriterion> criteria = new ArrayList<>(Arrays.asList(EnumCriterion.values()));
+        Collections.shuffle(criteria, random);
+        return criteria;
+    }
+    
+    /** Retrieves the name of the item at a given position of the catalog */
+    public static String getItemName(int index) {
+        return "Item" + index;
+    }
+    
+    /** Generates a workload.
+     * @param args the arguments of the program, each one optional: "--items N" the catalog size (10000 by default), "--engineers A" the number of
+     *             preference files (2 by default), "--criteria C" the number of criteria of each engineer (6 by default), "--correlation R"
+     *             the correlation of the engineers' grades from -1 to 1 (0 by default), "--skew S" the shift of the grades (0 by default, positive for better grades),
+     *             "--ordering random|shared|opposed" the criteria orderings of the engineers (random by default), "--seed S" the seed of the workload
+     *             and "--output DIR" the directory of the files (workload by default).
+     */
+    public static void main(String[] args) throws IOException {
+        int itemCount = 10000;
+        int engineerCount = 2;
+        int criteriaCount = EnumCriterion.values().length;
+        double correlation = 0;
+        double skew = 0;
+        Ordering ordering = Ordering.RANDOM;
+        long seed = 0;
+        String outputPath = "workload";
+        
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--items": itemCount = Math.max(1, Integer.parseInt(value)); break;
+                case "--engineers": engineerCount = Math.max(1, Integer.parseInt(value)); break;
+                case "--criteria": criteriaCount = Integer.parseInt(value); break;
+                case "--correlation": correlation = Math.max(-1, Math.min(1, Double.parseDouble(value))); break;
+                case "--skew": skew = Double.parseDouble(value); break;
+                case "--ordering":
+                    try {
+                        ordering = Ordering.valueOf(value.toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Unknown ordering \"" + value + "\".");
+                        return;
+                    }
+                    break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--output": outputPath = value; break;
+                default:
+                    System.out.println("Unknown option \"" + args[i] + "\".");
+                    return;
+            }
+        }
+        
+        WorkloadGenerator generator = new WorkloadGenerator(itemCount, engineerCount);
+        generator.setCriteriaCount(criteriaCount);
+        generator.setCorrelation(correlation);
+        generator.setSkew(skew);
+        generator.setOrdering(ordering);
+        generator.setSeed(seed);
+        
+        long start = System.nanoTime();
+        generator.generate(new File(outputPath));
+        System.out.println("Workload: " + itemCount + " items and " + engineerCount + " preference files written in " + outputPath + " in "
+                + String.format(Locale.ROOT, "%.2f", (System.nanoTime() - start) / 1e9) + " s.");
+    }
+    
+    // ------- GETTERS ------- // ------- SETTERS ------- //
+    
+    public void setCriteriaCount(int criteriaCountIn) {
+        criteriaCount = criteriaCountIn;
+    }
+    
+    public void setCorrelation(double correlationIn) {
+        correlation = correlationIn;
+    }
+    
+    public void setSkew(double skewIn) {
+        skew = skewIn;
+    }
+    
+    public void setOrdering(Ordering orderingIn) {
+        ordering = orderingIn;
+    }
+    
+    public void setSeed(long seedIn) {
+        seed = seedIn;
+    }
+}
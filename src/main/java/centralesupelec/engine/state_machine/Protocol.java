@@ -0,0 +1,274 @@
+package centralesupelec.engine.state_machine;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jade.lang.acl.ACLMessage;
+
+/** The transition rules of the negotiation protocol, compiled into a dense [state][performative] table.
+ * A protocol is immutable once loaded, so a single instance is shared by the state machines of all agents.
+ * Rules are written "STATE : PERFORMATIVE -> OUTCOME, OUTCOME, ..." with DIRECT as performative for transitions
+ * that don't wait for a message. The default protocol is the protocol.txt resource.
+ *
+ * @author Thomas Lamson
+ */
+public class Protocol {
+    /** Name of the classpath resource describing the default protocol */
+    private static final String DEFAULT_RESOURCE = "/protocol.txt";
+    
+    /** Keyword used in place of a performative for direct transitions */
+    private static final String DIRECT = "DIRECT";
+    
+    /** State in which every agent begins */
+    private static final State INITIAL_STATE = State.WAIT;
+    
+    /** Number of performatives known by JADE, column 0 of the table being reserved to direct transitions */
+    private static final int PERFORMATIVE_COUNT = ACLMessage.getAllPerformativeNames().length;
+    
+    /** Outcomes returned when no rule applies */
+    private static final State[] NO_OUTCOMES = new State[0];
+    
+    /** The default protocol, loaded on first use */
+    private static volatile Protocol defaultProtocol;
+    
+    /** Protocols already loaded from files, by path, so that agents using the same file share the same table */
+    private static Map<String, Protocol> loadedProtocols = new ConcurrentHashMap<>();
+    
+    /** Outcomes of each state for each performative, shifted by one so that direct transitions are at index 0 */
+    private State[][][] table = new State[State.values().length][PERFORMATIVE_COUNT + 1][];
+    
+    private Protocol() {}
+    
+    /** Returns current state's outcomes that can be reached after a certain performative (-1 for direct outcomes).
+     * The returned array is the protocol's own row, shared by every agent following it, so it is read-only and must not be modified. */
+    public State[] getOutcomes(State state, int performative) {
+        if (performative < -1 || performative >= PERFORMATIVE_COUNT) {
+            return NO_OUTCOMES;
+        }
+        State[] outcomes = table[state.ordinal()][performative + 1];
+        return outcomes == null ? NO_OUTCOMES : outcomes;
+    }
+    
+    /** Returns the performatives that lead to a transition from at least one state, the other ones being always ignored */
+    public int[] getHandledPerformatives() {
+        int[] performatives = new int[PERFORMATIVE_COUNT];
+        int count = 0;
+        for (int performative = 0; performative < PERFORMATIVE_COUNT; performative++) {
+            for (State[][] stateRules : table) {
+                if (stateRules[performative + 1] != null) {
+                    performatives[count++] = performative;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(performatives, count);
+    }
+    
+    /** Retrieves the default protocol of the engineer agents. Only its loading takes a lock, as every new agent retrieves it */
+    public static Protocol getDefault() {
+        Protocol loaded = defaultProtocol;
+        return loaded != null ? loaded : loadDefault();
+    }
+    
+    /** Loads the default protocol, unless another thread just did */
+    private static synchronized Protocol loadDefault() {
+        if (defaultProtocol == null) {
+            InputStream stream = Protocol.class.getResourceAsStream(DEFAULT_RESOURCE);
+            if (stream == null) {
+                throw new IllegalStateException("Default protocol resource \"" + DEFAULT_RESOURCE + "\" was not found.");
+            }
+            
+            Scanner scanner = new Scanner(stream, "UTF-8");
+            try {
+                Optional<Protocol> protocol = parse(scanner, DEFAULT_RESOURCE);
+                if (!protocol.isPresent()) {
+                    throw new IllegalStateException("Default protocol resource \"" + DEFAULT_RESOURCE + "\" is not valid.");
+                }
+                defaultProtocol = protocol.get();
+            } finally {
+                scanner.close();
+            }
+        }
+        return defaultProtocol;
+    }
+    
+    /** Loads, validates and compiles a protocol file, or retrieves it if it was already loaded.
+     * Returns an empty Optional if any problem was encountered and prints a detailed error message. */
+    public static Optional<Protocol> loadFromFile(String filePath) {
+        Protocol loaded = loadedProtocols.get(filePath);
+        if (loaded != null) {
+            return Optional.of(loaded);
+        }
+        
+        Scanner scanner = null;
+        try {
+            scanner = new Scanner(new File(filePath));
+            Optional<Protocol> protocol = parse(scanner, filePath);
+            protocol.ifPresent(p -> loadedProtocols.putIfAbsent(filePath, p));
+            return protocol;
+            
+        } catch(FileNotFoundException e) {
+            // ERROR: File not found
+            System.out.println("Protocol file at path \"" + filePath + "\" was not found.");
+            return Optional.empty();
+            
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+        }
+    }
+    
+    /** Parses the rules read by a scanner, then validates the resulting protocol */
+    private static Optional<Protocol> parse(Scanner scanner, String source) {
+        Protocol protocol = new Protocol();
+        int line = 0;
+        
+        while (scanner.hasNextLine()) {
+            line++;
+            
+            // Removing spaces and tabulations
+            String cleanLine = scanner.nextLine().replace(" ", "").replace("\t", "");
+            
+            // Ignoring commented lines and empty lines
+            if (cleanLine.startsWith("#") || cleanLine.contentEquals("")) {
+                continue;
+            }
+            
+            String[] elements = cleanLine.split("->");
+            String[] trigger = elements[0].split(":");
+            if (elements.length != 2 || trigger.length != 2) {
+                // ERROR: Incorrect format
+                System.out.println("Didn't find \"STATE : PERFORMATIVE -> OUTCOME, ...\" format at line "
+                        + Integer.toString(line) + " of protocol \"" + source + "\".");
+                return Optional.empty();
+            }
+            
+            Optional<State> state = findState(trigger[0]);
+            if (!state.isPresent()) {
+                // ERROR: State not recognized
+                System.out.println("State \"" + trigger[0] + "\" at line " + Integer.toString(line)
+                        + " of protocol \"" + source + "\" was not recognized.");
+                return Optional.empty();
+            }
+            
+            int performative = trigger[1].equals(DIRECT) ? -1 : ACLMessage.getInteger(trigger[1].replace('_', '-'));
+            if (performative == -1 && !trigger[1].equals(DIRECT)) {
+                // ERROR: Performative not recognized
+                System.out.println("Performative \"" + trigger[1] + "\" at line " + Integer.toString(line)
+                        + " of protocol \"" + source + "\" was not recognized.");
+                return Optional.empty();
+            }
+            
+            ArrayList<State> outcomes = new ArrayList<>();
+            for (String outcomeName : elements[1].split(",")) {
+                Optional<State> outcome = findState(outcomeName);
+                if (!outcome.isPresent()) {
+                    // ERROR: Outcome not recognized
+                    System.out.println("Outcome \"" + outcomeName + "\" at line " + Integer.toString(line)
+                            + " of protocol \"" + source + "\" was not recognized.");
+                    return Optional.empty();
+                }
+                outcomes.add(outcome.get());
+            }
+            
+            State[][] stateRules = protocol.table[state.get().ordinal()];
+            if (stateRules[performative + 1] != null) {
+                // ERROR: Rule defined twice
+                System.out.println("Rule at line " + Integer.toString(line) + " of protocol \"" + source
+                        + "\" was already defined for state " + state.get() + " and performative " + trigger[1] + ".");
+                return Optional.empty();
+            }
+            stateRules[performative + 1] = outcomes.toArray(new State[outcomes.size()]);
+        }
+        
+        return protocol.validate(source) ? Optional.of(protocol) : Optional.empty();
+    }
+    
+    /** Checks that the protocol can be followed from the initial state: every state with rules is reachable, every reachable state can be left
+     * and doesn't mix direct and message transitions, and every performative sent to engineers is handled by some state.
+     * States without any rule may be left out, so that protocols written before a state was added stay valid.
+     * Prints every problem found and returns false if there is any. */
+    private boolean validate(String source) {
+        boolean valid = true;
+        
+        // Exploring the states reachable from the initial state
+        boolean[] reachable = new boolean[State.values().length];
+        ArrayDeque<State> toVisit = new ArrayDeque<>();
+        reachable[INITIAL_STATE.ordinal()] = true;
+        toVisit.add(INITIAL_STATE);
+        while (!toVisit.isEmpty()) {
+            for (State[] outcomes : table[toVisit.poll().ordinal()]) {
+                if (outcomes != null) {
+                    for (State outcome : outcomes) {
+                        if (!reachable[outcome.ordinal()]) {
+                            reachable[outcome.ordinal()] = true;
+                            toVisit.add(outcome);
+                        }
+                    }
+                }
+            }
+        }
+        
+        boolean[] handled = new boolean[PERFORMATIVE_COUNT];
+        for (State state : State.values()) {
+            State[][] stateRules = table[state.ordinal()];
+            
+            int ruleCount = 0;
+            for (int performative = 0; performative < PERFORMATIVE_COUNT; performative++) {
+                if (stateRules[performative + 1] != null) {
+                    ruleCount++;
+                    if (reachable[state.ordinal()]) {
+                        handled[performative] = true;
+                    }
+                }
+            }
+            
+            if (!reachable[state.ordinal()] && stateRules[0] == null && ruleCount == 0) {
+                // Unused state
+                continue;
+            } else if (!reachable[state.ordinal()]) {
+                // ERROR: State not reachable
+                System.out.println("State " + state + " of protocol \"" + source + "\" is not reachable from " + INITIAL_STATE + ".");
+                valid = false;
+            } else if (stateRules[0] == null && ruleCount == 0) {
+                // ERROR: State can't be left
+                System.out.println("State " + state + " of protocol \"" + source + "\" has no transition rule.");
+                valid = false;
+            } else if (stateRules[0] != null && ruleCount > 0) {
+                // ERROR: Message rules would never be used
+                System.out.println("State " + state + " of protocol \"" + source + "\" has both a direct transition and message transitions.");
+                valid = false;
+            }
+        }
+        
+        for (State state : State.values()) {
+            if (reachable[state.ordinal()] && state.getSendEngineers() && !handled[state.getPerformative()]) {
+                // ERROR: Performative never handled
+                System.out.println("Performative " + ACLMessage.getPerformative(state.getPerformative()) + " sent in state " + state
+                        + " of protocol \"" + source + "\" is not handled by any state.");
+                valid = false;
+            }
+        }
+        
+        return valid;
+    }
+    
+    /** Tries to find the state corresponding to the given name, returns empty Optional if not recognized */
+    private static Optional<State> findState(String name) {
+        for (State state : State.values()) {
+            if (state.name().equals(name)) {
+                return Optional.of(state);
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -1,6 +1,9 @@
 package centralesupelec.engine.state_machine;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 import jade.lang.acl.ACLMessage;
 
 import centralesupelec.engine.agents.EngineerAgent;
@@ -15,37 +18,39 @@ import centralesupelec.engine.state_machine.actions.ProposeAction;
  */
 public enum State {
     
-    // STATE    PRINT_NAME      PERFORMATIVE_TO_SEND        TO_ENGIN.   TO_MANAGER  ACTION_GENERATOR
-    WAIT        ("WAIT",        -1,                         false,      false,      Action::generateWaitAction),        // No message on WAIT
-    WAIT_COMMIT ("WAIT",        -1,                         false,      false,      Action::generateWaitAction),         // No message on WAIT_COMMIT
-    PROPOSE     ("PROPOSE",     ACLMessage.PROPOSE,         true,       false,      ProposeAction::generateAction),
-    ASK_WHY     ("ASK_WHY",     ACLMessage.REQUEST,         true,       false,      Action::generateAskWhyAction),
-    ACCEPT      ("ACCEPT",      ACLMessage.ACCEPT_PROPOSAL, true,       false,      AcceptAction::generateAcceptAction),
-    ACCEPT_ANY  ("ACCEPT",      ACLMessage.ACCEPT_PROPOSAL, true,       false,      AcceptAction::generateAcceptAnyAction),
-    ARGUE_PROP  ("ARGUE",       ACLMessage.INFORM,          true,       false,      ArgueAction::generateArgueProposalAction),
-    ARGUE       ("ARGUE",       ACLMessage.INFORM,          true,       false,      ArgueAction::generateArgueAction),
-    COMMIT      ("COMMIT",      ACLMessage.CONFIRM,         true,       false,      Action::generateCommitAction),
-    COMMIT_TAKE ("COMMIT",      ACLMessage.CONFIRM,         true,       false,      Action::generateCommitAction),
-    TAKE        ("TAKE",        ACLMessage.INFORM_REF,      true,       true,       Action::generateTakeAction),         // TAKE is also sent to manager
-    CANCEL      ("CANCEL",      ACLMessage.CANCEL,          true,       true,       Action::generateCancelAction);       // CANCEL is also sent to manager
+    // STATE    PRINT_NAME      PERFORMATIVE_TO_SEND        TO_ENGIN.   TO_SENDER   TO_MANAGER  ACTION_GENERATOR                                POLICY_BOUND
+    WAIT        ("WAIT",        -1,                         false,      false,      false,      Action::generateWaitAction,                     Action::boundZero),                 // No message on WAIT
+    WAIT_COMMIT ("WAIT",        -1,                         false,      false,      false,      Action::generateWaitAction,                     Action::boundZero),                 // No message on WAIT_COMMIT
+    PROPOSE     ("PROPOSE",     ACLMessage.PROPOSE,         true,       false,      false,      ProposeAction::generateAction,                  ProposeAction::boundAction),
+    ASK_WHY     ("ASK_WHY",     ACLMessage.REQUEST,         true,       true,       false,      Action::generateAskWhyAction,                   Action::boundCancel),
+    ACCEPT      ("ACCEPT",      ACLMessage.ACCEPT_PROPOSAL, true,       false,      false,      AcceptAction::generateAcceptAction,             AcceptAction::boundAcceptAction),
+    ACCEPT_ANY  ("ACCEPT",      ACLMessage.ACCEPT_PROPOSAL, true,       false,      false,      AcceptAction::generateAcceptAnyAction,          AcceptAction::boundAcceptAnyAction),
+    ARGUE_PROP  ("ARGUE",       ACLMessage.INFORM,          true,       false,      false,      ArgueAction::generateArgueProposalAction,       ArgueAction::boundArgueAction),
+    ARGUE       ("ARGUE",       ACLMessage.INFORM,          true,       false,      false,      ArgueAction::generateArgueAction,               ArgueAction::boundArgueAction),
+    COMMIT      ("COMMIT",      ACLMessage.CONFIRM,         true,       true,       false,      Action::generateCommitAction,                   Action::boundZero),
+    COMMIT_TAKE ("COMMIT",      ACLMessage.CONFIRM,         true,       false,      false,      Action::generateCommitAction,                   Action::boundZero),
+    TAKE        ("TAKE",        ACLMessage.INFORM_REF,      true,       false,      true,       Action::generateTakeAction,                     Action::boundZero),                 // TAKE is also sent to manager
+    CANCEL      ("CANCEL",      ACLMessage.CANCEL,          true,       false,      true,       Action::generateCancelAction,                   Action::boundCancel),               // CANCEL is also sent to manager
+    PASS        ("PASS",        ACLMessage.REFUSE,          true,       false,      false,      Action::generatePassAction,                     Action::boundPass);
     
     // ------------------------------- Short description of states --------------------------------
     
-    // WAIT         >   Wait for a request from the manager to begin negotiation, or for a proposal from the other engineer agent
-    // WAIT_COMMIT  >   Wait for the other engineer agent to commit after it accepted a proposal
+    // WAIT         >   Wait for a request from the manager to begin negotiation, or for a proposal from another engineer agent
+    // WAIT_COMMIT  >   Wait for the engineer agent that accepted a proposal to commit to it
     // PROPOSE      >   Propose a new item to the negotiation
-    // ASK_WHY      >   Request an argument that defends the proposal that was just made by the other agent
-    // ACCEPT       >   Accept a proposal that was just emitted by the other agent
-    // ACCEPT_ANY   >   Accept an old proposal that was emitted by the other agent, maybe after some negotiation
+    // ASK_WHY      >   Request an argument that defends the proposal that was just made by another agent (sent to that agent only)
+    // ACCEPT       >   Accept a proposal that was just emitted by another agent
+    // ACCEPT_ANY   >   Accept an old proposal that was emitted by another agent, maybe after some negotiation
     // ARGUE_PROP   >   Argue to defend the proposal that was just made
     // ARGUE        >   Find the argument that leads the best item possible to a negotiation winning state
-    // COMMIT       >   Commit to an item after having accepted it
-    // COMMIT_TAKE  >   Commit to an item after it was accepted and commited by the other agent, preparing to take it
+    // COMMIT       >   Commit to an item after having accepted it (sent to the agent that committed first only)
+    // COMMIT_TAKE  >   Commit to an item after accepting it, preparing to take it once every other agent commited too
     // TAKE         >   Inform all agents that an item was chosen after the negotiation
     // CANCEL       >   Inform all agents that the negotiation was cancelled
-
+    // PASS         >   Let the next engineer of the panel answer instead of us, when we have nothing better than cancelling and someone else still may
+    
     // --- See the Action generators of each state to see the transition policies of each state ---
-    // ---------- See the StateMachine class to see the transition rules between states -----------
+    // --- See the protocol.txt resource, loaded by the Protocol class, to see the transition rules between states ---
     
     /** The name that is printed when reaching that state */
     private String name;
@@ -56,18 +61,32 @@ public enum State {
     /** Should this message be sent to other engineers? */
     private boolean sendEngineers;
     
+    /** Should this message only be sent to the engineer whose message triggered the transition, instead of all other engineers? */
+    private boolean sendSenderOnly;
+    
     /** Should this message be sent to the manager? */
     private boolean sendManager;
     
     /** Action generation function that will be used to generate the current policy value of that state */
     private Function<EngineerAgent, Action> actionFunction;
     
-    private State(String nameIn, int performativeIn, boolean sendEngineersIn, boolean sendManagerIn, Function<EngineerAgent, Action> policyFunctionIn) {
+    /** Cheap function giving an upper bound of the policy value the action generator would produce */
+    private ToDoubleFunction<EngineerAgent> boundFunction;
+    
+    /** Number of action generations that were skipped because their bound couldn't beat the best action, and that were performed.
+     * Counted in per-thread cells, so that agents running on several cores don't contend on them */
+    private static LongAdder prunedEvaluations = new LongAdder();
+    private static LongAdder performedEvaluations = new LongAdder();
+    
+    private State(String nameIn, int performativeIn, boolean sendEngineersIn, boolean sendSenderOnlyIn, boolean sendManagerIn, Function<EngineerAgent, Action> policyFunctionIn,
+            ToDoubleFunction<EngineerAgent> boundFunctionIn) {
         name = nameIn;
         performative = performativeIn;
         sendEngineers = sendEngineersIn;
+        sendSenderOnly = sendSenderOnlyIn;
         sendManager = sendManagerIn;
         actionFunction = policyFunctionIn;
+        boundFunction = boundFunctionIn;
     }
     
     /** Applies the Action generator to compute the specific action this state will perform if transitionned to. */
@@ -75,30 +94,63 @@ public enum State {
         return actionFunction.apply(agent);
     }
     
-    /** Selects the best Action to perform given a list of possible states that can be reached. */
+    /** Computes an upper bound of the policy value of the Action this state would perform if transitionned to. */
+    public float getPolicyBound(EngineerAgent agent) {
+        return (float) boundFunction.applyAsDouble(agent);
+    }
+    
+    /** Selects the best Action to perform given a list of possible states that can be reached.
+     * States are evaluated by decreasing bound, and a state is skipped when its bound can't beat the best action found so far.
+     * The selected action is the same as when evaluating every state: the best policy value, the first state in case of a tie. */
     public static Action chooseBetweenStates(EngineerAgent agent, State[] states) {
+        // Computing the cheap bounds and sorting states by decreasing bound (stable, so that ties keep the states order)
+        float[] bounds = new float[states.length];
+        Integer[] order = new Integer[states.length];
+        for (int i = 0; i < states.length; i++) {
+            bounds[i] = states[i].getPolicyBound(agent);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(bounds[b], bounds[a]));
+        
         float maxVal = 0;
-        State bestState = null;
+        int bestIndex = -1;
         Action bestAction = null;
         
-        for (State s : states) {
+        for (int i : order) {
+            // Skipping states that can at best tie with the best action while coming after it
+            if (bestAction != null && (bounds[i] < maxVal || (bounds[i] == maxVal && i > bestIndex))) {
+                prunedEvaluations.increment();
+                continue;
+            }
+            
             // Generating action for current next state
-            Action action = s.getAction(agent);
+            Action action = states[i].getAction(agent);
+            performedEvaluations.increment();
             
             // Selecting the action with greatest policy value
             float val = action.getPolicyValue();
-            if (bestAction == null || val > maxVal) {
+            if (bestAction == null || val > maxVal || (val == maxVal && i < bestIndex)) {
                 maxVal = val;
-                bestState = s;
+                bestIndex = i;
                 bestAction = action;
             }
         }
         
         // Registering best state in best action and returning it
-        bestAction.setState(bestState);
+        bestAction.setState(states[bestIndex]);
         return bestAction;
     }
     
+    /** Number of action generations skipped by chooseBetweenStates since the start of the program */
+    public static long getPrunedEvaluations() {
+        return prunedEvaluations.sum();
+    }
+    
+    /** Number of action generations performed by chooseBetweenStates since the start of the program */
+    public static long getPerformedEvaluations() {
+        return performedEvaluations.sum();
+    }
+    
     // ------- GETTERS ------- // ------- SETTERS ------- //
     
     public String getName() {
@@ -113,6 +165,10 @@ public enum State {
         return sendEngineers;
     }
     
+    public boolean getSendSenderOnly() {
+        return sendSenderOnly;
+    }
+    
     public boolean getSendManager() {
         return sendManager;
     }
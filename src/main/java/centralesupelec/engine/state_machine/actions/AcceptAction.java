@@ -1,8 +1,9 @@
 package centralesupelec.engine.state_machine.actions;
 
-import java.util.ArrayList;
+import java.util.List;
 
 import centralesupelec.engine.agents.EngineerAgent;
+import centralesupelec.engine.agents.MessageCodec;
 import centralesupelec.engine.argumentation.Item;
 
 /** An action performed when accepting a proposal
@@ -20,35 +21,50 @@ public class AcceptAction extends Action {
     @Override
     public void execute(EngineerAgent agent) {
         // Makes sure that current remembered item is the one to accept
-        agent.currentItem = item;
+        agent.setCurrentItem(item);
+    }
+    
+    @Override
+    public byte[] encodeContent(EngineerAgent agent) {
+        return MessageCodec.encodeItem(item, agent);
     }
     
     /** Generating an AcceptAction that accepts a proposal directly after it's emitted */
     public static Action generateAcceptAction(EngineerAgent agent) {
         
         // Accepting a proposal directly is only ACCEPTABLE if the proposed item can be accepted
-        if (agent.getPreferences().canAccept(agent.currentItem, agent.getItems())) {
+        if (agent.canAccept(agent.getCurrentItem())) {
             return new AcceptAction(
-                    agent.getPreferences().computeScore(agent.currentItem), 
-                    agent.currentItem.getName(), 
-                    agent.currentItem);
+                    agent.getPreferences().computeScore(agent.getCurrentItem()), 
+                    agent.getCurrentItem().getName(), 
+                    agent.getCurrentItem());
         } else {
             return new Action(UNACCEPTABLE);
         }
     }
-
+    
+    /** Bounds the policy value of an AcceptAction, which is cheap enough to be computed exactly */
+    public static float boundAcceptAction(EngineerAgent agent) {
+        return agent.canAccept(agent.getCurrentItem()) ? agent.getPreferences().computeScore(agent.getCurrentItem()) : UNACCEPTABLE;
+    }
+    
+    /** Bounds the policy value of an AcceptAnyAction by the best score among items proposed by other agents */
+    public static float boundAcceptAnyAction(EngineerAgent agent) {
+        return boundBestScore(agent, agent.getGraph().getItemsProposedByOther());
+    }
+    
     /** Generating an AcceptAction that accepts a proposal after negotiation */
     public static Action generateAcceptAnyAction(EngineerAgent agent) {
         
         // We can only accept items proposed by other agents
-        ArrayList<Item> extProposedItems = agent.getGraph().getItemsProposedByOther();
+        List<Item> extProposedItems = agent.getGraph().getItemsProposedByOther();
         
         float bestPolicy = UNACCEPTABLE;
         Item bestItem = null;
         
         // We can only accept items that are in winning state in the graph, or that we can genuinely accept with our preferences
         for (Item item : extProposedItems) {
-            if (agent.getGraph().isItemWinning(item) || agent.getPreferences().canAccept(item, agent.getItems())) {
+            if (agent.getGraph().isItemWinning(item) || agent.canAccept(item)) {
                 float policy = agent.getPreferences().computeScore(item);
                 
                 // Among acceptable items, we only accept the best one in terms of score
@@ -1,6 +1,9 @@
 package centralesupelec.engine.state_machine.actions;
 
+import java.util.List;
+
 import centralesupelec.engine.agents.EngineerAgent;
+import centralesupelec.engine.argumentation.Item;
 import centralesupelec.engine.state_machine.State;
 
 /** An action to perform when a state is chosen and transitioned to.
@@ -12,6 +15,8 @@ public class Action {
     // Constant policy values
     public static final float UNACCEPTABLE = -100.0f;
     public static final float CANCEL_VALUE = -99.0f;
+    /** Passing is only preferred to cancelling */
+    public static final float PASS_VALUE = CANCEL_VALUE + 1;
     
     /** State initiating the action */
     private State state;
@@ -34,6 +39,12 @@ public class Action {
         // Do nothing for basic actions (overridden by more complex actions)
     }
     
+    /** Encodes the content of the message in binary (see MessageCodec). Returns null if the content has no binary form */
+    public byte[] encodeContent(EngineerAgent agent) {
+        // Basic actions are sent as text (overridden by actions sending items or arguments)
+        return null;
+    }
+    
     // ------- SIMPLE GENERATORS ------- //
     
     public static Action generateWaitAction(EngineerAgent agent) {
@@ -41,21 +52,51 @@ public class Action {
     }
     
     public static Action generateAskWhyAction(EngineerAgent agent) {
-        return new Action(CANCEL_VALUE, agent.currentItem.getName());
+        return new Action(CANCEL_VALUE, agent.getCurrentItem().getName());
     }
     
     public static Action generateCommitAction(EngineerAgent agent) {
-        return new Action(0, agent.currentItem.getName());
+        return new Action(0, agent.getCurrentItem().getName());
     }
     
     public static Action generateTakeAction(EngineerAgent agent) {
-        return new Action(0, agent.currentItem.getName());
+        return new Action(0, agent.getCurrentItem().getName());
     }
     
     public static Action generateCancelAction(EngineerAgent agent) {
         return new Action(CANCEL_VALUE);
     }
     
+    /** Passing lets the next engineer answer instead of us. A cancellation ends the negotiation for the whole panel, so we only cancel
+     * once every other engineer of the panel passed since the last real move (whose author is counted as wanting to go on) */
+    public static Action generatePassAction(EngineerAgent agent) {
+        return new Action(boundPass(agent));
+    }
+    
+    // ------- SIMPLE BOUNDS ------- //
+    // Bounds are cheap upper bounds of the policy value a generator would produce, used to skip generators that can't win
+    
+    public static float boundZero(EngineerAgent agent) {
+        return 0;
+    }
+    
+    public static float boundCancel(EngineerAgent agent) {
+        return CANCEL_VALUE;
+    }
+    
+    public static float boundPass(EngineerAgent agent) {
+        return agent.getSession().getConsecutivePasses() < agent.getPanel().length - 2 ? PASS_VALUE : UNACCEPTABLE;
+    }
+    
+    /** Bounds the policy value of any action leading to one of the given items winning or being accepted: the best score among them */
+    public static float boundBestScore(EngineerAgent agent, List<Item> items) {
+        float bound = UNACCEPTABLE;
+        for (Item item : items) {
+            bound = Math.max(bound, agent.getPreferences().computeScore(item));
+        }
+        return bound;
+    }
+    
     // ------- GETTERS ------- // ------- SETTERS ------- //
     
     public void setState(State stateIn) {
@@ -1,9 +1,12 @@
 package centralesupelec.engine.state_machine.actions;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import centralesupelec.engine.agents.EngineerAgent;
+import centralesupelec.engine.agents.MessageCodec;
 import centralesupelec.engine.argumentation.Argument;
 import centralesupelec.engine.argumentation.Item;
 import centralesupelec.engine.argumentation.graph.NegotiationGraph;
@@ -13,6 +16,17 @@ import centralesupelec.engine.argumentation.graph.NegotiationGraph;
  * @author Thomas Lamson
  */
 public class ArgueAction extends Action {
+    
+    /** Internal class that holds a generated argument and the best score among winning items once it's added */
+    private static class Evaluation {
+        private Argument argument;
+        private float bestItemScore = UNACCEPTABLE;
+        
+        private Evaluation(Argument argumentIn) {
+            argument = argumentIn;
+        }
+    }
+    
     private Argument argument;
     
     public ArgueAction(float policyValueIn, String contentIn, Argument argumentIn) {
@@ -26,6 +40,11 @@ public class ArgueAction extends Action {
         agent.getGraph().addArgument(argument);
     }
     
+    @Override
+    public byte[] encodeContent(EngineerAgent agent) {
+        return MessageCodec.encodeArgument(argument, agent);
+    }
+    
     /** Generating an ArgueAction for any item in a given agent's negotiation graph */
     public static Action generateArgueAction(EngineerAgent agent) {
         return generateActionWithGraph(agent, agent.getGraph(), Optional.empty());
@@ -33,58 +52,48 @@ public class ArgueAction extends Action {
     
     /** Generating an ArgueAction for the currently proposed item and using agent's negotiation graph */
     public static Action generateArgueProposalAction(EngineerAgent agent) {
-        return generateActionWithGraph(agent, agent.getGraph(), Optional.of(agent.currentItem));
+        return generateActionWithGraph(agent, agent.getGraph(), Optional.of(agent.getCurrentItem()));
+    }
+    
+    /** Bounds the policy value of an ArgueAction, which is the score of a proposed item made winning, by the best score among proposed items */
+    public static float boundArgueAction(EngineerAgent agent) {
+        return boundBestScore(agent, agent.getGraph().getProposedItems());
     }
     
     /** Generating an ArgueAction based on a given negotiation graph, can be useful to simulate what an argue would produce with any given graph.
-     * An optional forced item can be indicated to limit the argumentation to one specific item. Used when answering an ASK_WHY request. */
+     * An optional forced item can be indicated to limit the argumentation to one specific item. Used when answering an ASK_WHY request.
+     * Candidate items can be evaluated in parallel (see ParallelEvaluation), which gives the same result. */
     public static Action generateActionWithGraph(EngineerAgent agent, NegotiationGraph graph, Optional<Item> optForcedItem) {
         
         // Initialization
         Argument bestArgument = null;
         float bestArgumentScore = UNACCEPTABLE;
-        ArrayList<Item> proposedItems = graph.getProposedItems();
-
-        // Generate the best argument for each proposed item (either defending or attacking)
-        for (Item item : proposedItems) {
-            // Next iteration if there is a forced item and it's not the current one
-            if (optForcedItem.isPresent() && !optForcedItem.get().equals(item)) {
-                continue;
+        List<Item> proposedItems = graph.getProposedItems();
+        
+        // We argue on every proposed item, or only on the forced item if there is one
+        List<Item> candidates = proposedItems;
+        if (optForcedItem.isPresent()) {
+            candidates = graph.isProposed(optForcedItem.get()) ? Collections.singletonList(optForcedItem.get()) : Collections.emptyList();
+        }
+        
+        // Generate the best argument for each candidate item (either defending or attacking) and evaluate it
+        List<Evaluation> evaluations;
+        if (ParallelEvaluation.shouldParallelize(candidates.size())) {
+            // Concurrent evaluations simulate the arguments on graphs derived from the given one, which is never modified
+            evaluations = ParallelEvaluation.map(candidates, item -> evaluateArgumentForItem(agent, graph, item, false));
+        } else {
+            evaluations = new ArrayList<>(candidates.size());
+            for (Item item : candidates) {
+                evaluations.add(evaluateArgumentForItem(agent, graph, item, true));
             }
-            
-            // Try to generate the best argument for current item
-            Optional<Argument> optArgument = graph.generateBestArgumentForItem(item, agent);
-            
-            // If a valid argument was generated...
-            if (optArgument.isPresent()) {
-                Argument argument = optArgument.get();
-                
-                // Compute what will be the best item after the application of such argument
-                float newBestItemScore = UNACCEPTABLE;
-                
-                // Cloning the agent's graph to simulate the effect of the generated argument
-                NegotiationGraph temporaryGraph = graph.clone();
-                temporaryGraph.addArgument(argument);
-                
-                for (Item finalItem : proposedItems) {
-                    // Is an item winning when we add the new argument?
-                    if (temporaryGraph.isItemWinning(finalItem)) {
-                        
-                        // It is winning so we try to remember the best winning item so far in terms of score
-                        float itemScore = agent.getPreferences().computeScore(finalItem);
-                        
-                        if (newBestItemScore < itemScore) {
-                            newBestItemScore = itemScore;
-                        }
-                    }
-                }
-                
-                // We only consider the argument acceptable if it changed the best item of the graph (or its score)
-                // With considered arguments, we select the one that makes the most interesting item winning
-                if (newBestItemScore > bestArgumentScore) {
-                    bestArgumentScore = newBestItemScore;
-                    bestArgument = argument;
-                }
+        }
+        
+        for (Evaluation evaluation : evaluations) {
+            // We only consider the argument acceptable if it changed the best item of the graph (or its score)
+            // With considered arguments, we select the one that makes the most interesting item winning
+            if (evaluation != null && evaluation.bestItemScore > bestArgumentScore) {
+                bestArgumentScore = evaluation.bestItemScore;
+                bestArgument = evaluation.argument;
             }
         }
         
@@ -97,4 +106,47 @@ public class ArgueAction extends Action {
             return new Action(UNACCEPTABLE);
         }
     }
+    
+    /** Generates the best argument for an item and computes the best score among winning items once it's added.
+     * The argument is simulated in place on the graph and rolled back, or on a derived graph when the given graph is shared between threads.
+     * Returns null if no valid argument could be generated. */
+    private static Evaluation evaluateArgumentForItem(EngineerAgent agent, NegotiationGraph graph, Item item, boolean inPlace) {
+        
+        // Try to generate the best argument for current item
+        Optional<Argument> optArgument = graph.generateBestArgumentForItem(item, agent);
+        if (!optArgument.isPresent()) {
+            return null;
+        }
+        Argument argument = optArgument.get();
+        
+        // Compute what will be the best item after the application of such argument
+        Evaluation evaluation = new Evaluation(argument);
+        NegotiationGraph simulatedGraph = inPlace ? graph : graph.withArgument(argument);
+        
+        int savepoint = inPlace ? simulatedGraph.savepoint() : 0;
+        try {
+            if (inPlace) {
+                simulatedGraph.addArgument(argument);
+            }
+            
+            for (Item finalItem : simulatedGraph.getProposedItems()) {
+                // Is an item winning when we add the new argument?
+                if (simulatedGraph.isItemWinning(finalItem)) {
+                    
+                    // It is winning so we try to remember the best winning item so far in terms of score
+                    float itemScore = agent.getPreferences().computeScore(finalItem);
+                    
+                    if (evaluation.bestItemScore < itemScore) {
+                        evaluation.bestItemScore = itemScore;
+                    }
+                }
+            }
+        } finally {
+            if (inPlace) {
+                simulatedGraph.rollback(savepoint);
+            }
+        }
+        
+        return evaluation;
+    }
 }
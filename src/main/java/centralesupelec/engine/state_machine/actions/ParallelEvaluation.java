@@ -0,0 +1,74 @@
+package centralesupelec.engine.state_machine.actions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/** Settings and shared fork-join pool of the optional parallel evaluation of candidate moves by the action generators.
+ * Parallel evaluation is disabled by default. When enabled, it is only used from a minimal number of candidates,
+ * below which the cost of dispatching tasks outweighs the evaluation itself.
+ *
+ * @author Thomas Lamson
+ */
+public class ParallelEvaluation {
+    /** Pool shared by all agents, created on first use */
+    private static ForkJoinPool pool;
+    
+    /** Is parallel evaluation enabled? */
+    private static volatile boolean enabled = false;
+    
+    /** Minimal number of candidates to evaluate them in parallel */
+    private static volatile int minCandidates = 8;
+    
+    private ParallelEvaluation() {}
+    
+    /** Checks if a given number of candidates should be evaluated in parallel */
+    public static boolean shouldParallelize(int candidateCount) {
+        return enabled && candidateCount >= Math.max(2, minCandidates);
+    }
+    
+    /** Evaluates a function on every candidate concurrently, and returns the results in the order of the candidates.
+     * The function must not modify any state shared between candidates. */
+    public static <T, R> List<R> map(List<T> candidates, Function<T, R> evaluation) {
+        ForkJoinPool sharedPool = getPool();
+        
+        ArrayList<ForkJoinTask<R>> tasks = new ArrayList<>(candidates.size());
+        for (T candidate : candidates) {
+            tasks.add(sharedPool.submit(() -> evaluation.apply(candidate)));
+        }
+        
+        ArrayList<R> results = new ArrayList<>(candidates.size());
+        for (ForkJoinTask<R> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+    
+    /** Retrieves the shared pool, creating it with one worker per available processor */
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return pool;
+    }
+    
+    // ------- GETTERS ------- // ------- SETTERS ------- //
+    
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    
+    public static void setEnabled(boolean enabledIn) {
+        enabled = enabledIn;
+    }
+    
+    public static int getMinCandidates() {
+        return minCandidates;
+    }
+    
+    public static void setMinCandidates(int minCandidatesIn) {
+        minCandidates = minCandidatesIn;
+    }
+}
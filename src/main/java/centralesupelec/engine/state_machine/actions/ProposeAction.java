@@ -1,11 +1,9 @@
 package centralesupelec.engine.state_machine.actions;
 
-import java.util.ArrayList;
-import java.util.Optional;
-
 import centralesupelec.engine.agents.EngineerAgent;
+import centralesupelec.engine.agents.MessageCodec;
 import centralesupelec.engine.argumentation.Item;
-import centralesupelec.engine.argumentation.graph.NegotiationGraph;
+import centralesupelec.engine.argumentation.ItemRanking;
 
 /** An action to perform when reaching a PROPOSE state
  *
@@ -25,45 +23,44 @@ public class ProposeAction extends Action {
         agent.getGraph().initiateProposal(item);
         
         // Make sure that proposed item becomes the new remembered current item
-        agent.currentItem = item;
+        agent.setCurrentItem(item);
     }
     
-    /** Generating a ProposeAction by proposing the best unproposed item that the agent can accept. */
-    public static Action generateAction(EngineerAgent agent) {
-        
-        // Retrieving the non-proposed items
-        ArrayList<Item> whiteList = new ArrayList<>();
-        for (Item item : agent.getItems()) {
-            if (!agent.getGraph().getProposedItems().contains(item)) {
-                whiteList.add(item);
+    @Override
+    public byte[] encodeContent(EngineerAgent agent) {
+        return MessageCodec.encodeItem(item, agent);
+    }
+    
+    /** Bounds the policy value of a ProposeAction by the score of the best unproposed item, if it can be accepted */
+    public static float boundAction(EngineerAgent agent) {
+        ItemRanking.Cursor cursor = agent.rankingCursor(agent.getGraph().getProposedItems());
+        if (cursor.hasNext()) {
+            Item item = cursor.next();
+            if (agent.canAccept(item)) {
+                return agent.getPreferences().computeScore(item);
             }
         }
+        return UNACCEPTABLE;
+    }
+    
+    /** Generating a ProposeAction by proposing the best unproposed item that the agent can accept and argue in favor of */
+    public static Action generateAction(EngineerAgent agent) {
         
-        // Computing the best item we can choose among the non-proposed items
-        Optional<Item> optBest = agent.getPreferences().findBest(whiteList);
-        
-        // While there is still items to propose and while we can accept the current item...
-        while (optBest.isPresent() && agent.getPreferences().canAccept(optBest.get(), agent.getItems())) {
-            
-            // Clone the negotiation graph to simulate what would happen when proposing the new item
-            NegotiationGraph temporaryGraph = agent.getGraph().clone();
-            temporaryGraph.initiateProposal(optBest.get());
-            
-            // Generating an ArgueAction in anticipation of an ASK_WHY request
-            float arguePolicyValue = ArgueAction.generateActionWithGraph(agent, temporaryGraph, Optional.of(optBest.get())).getPolicyValue();
-            
-            // We check that it was actually possible to argue in favor of the proposed item
-            if (arguePolicyValue > UNACCEPTABLE) {
-                
-                // As this item could be proposed and argued in favor of, and as we are testing them from best to worse, we can stop here and propose the item
-                return new ProposeAction(agent.getPreferences().computeScore(optBest.get()),
-                        optBest.get().getName(),
-                        optBest.get());
+        // Walking the non-proposed items from best to worse score, while we can accept them
+        ItemRanking.Cursor cursor = agent.rankingCursor(agent.getGraph().getProposedItems());
+        while (cursor.hasNext()) {
+            Item item = cursor.next();
+            if (!agent.canAccept(item)) {
+                break;
             }
             
-            // Remove the item from the list and retry with the remaining items
-            whiteList.remove(optBest.get());
-            optBest = agent.getPreferences().findBest(whiteList);
+            // In anticipation of an ASK_WHY request, we check in the argument book that the item has a positive criterion to defend it with.
+            // As we are testing items from best to worse, we can stop here and propose the item
+            if (agent.getPreferences().getArgumentMask(item, true) != 0) {
+                return new ProposeAction(agent.getPreferences().computeScore(item),
+                        item.getName(),
+                        item);
+            }
         }
         
         // No item were able to be proposed
@@ -0,0 +1,128 @@
+package centralesupelec.engine.state_machine.actions;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import centralesupelec.engine.agents.EngineerAgent;
+import centralesupelec.engine.argumentation.Argument;
+import centralesupelec.engine.argumentation.Item;
+import centralesupelec.engine.argumentation.ItemRegistry;
+import centralesupelec.engine.argumentation.graph.NegotiationGraph;
+import centralesupelec.engine.simulation.WorkloadGenerator;
+
+/** Checks that the parallel evaluation of candidate arguments (see ParallelEvaluation) chooses exactly the same ArgueAction as the sequential one.
+ * Negotiation graphs are built from seeds, for several catalog sizes and argumentation depths, and the action of each engineer is generated
+ * both ways, from a forgotten argument memo each time.
+ *
+ * @author Thomas Lamson
+ */
+public class ParallelEvaluationTest {
+    /** Catalog sizes and maximal numbers of arguments per proposal branch of the checked graphs */
+    private static final int[] CATALOG_SIZES = {4, 10, 60};
+    private static final int[] GRAPH_DEPTHS = {0, 1, 3, 6};
+    
+    /** Number of seeds checked for each catalog size and depth */
+    private static final int SEED_COUNT = 100;
+    
+    private boolean enabled;
+    private int minCandidates;
+    
+    @Before
+    public void saveSettings() {
+        enabled = ParallelEvaluation.isEnabled();
+        minCandidates = ParallelEvaluation.getMinCandidates();
+    }
+    
+    @After
+    public void restoreSettings() {
+        ParallelEvaluation.setEnabled(enabled);
+        ParallelEvaluation.setMinCandidates(minCandidates);
+    }
+    
+    @Test
+    public void parallelArgueActionMatchesSequential() {
+        ArrayList<String> mismatches = new ArrayList<>();
+        for (int catalogSize : CATALOG_SIZES) {
+            // Each catalog is registered in its own scope, the engineers of the previous one being discarded
+            ItemRegistry.reset();
+            ArrayList<Item> catalog = buildCatalog(catalogSize);
+            for (int graphDepth : GRAPH_DEPTHS) {
+                for (long seed = 0; seed < SEED_COUNT; seed++) {
+                    EngineerAgent agent = buildEngineer(catalog, new Random(2 * seed));
+                    EngineerAgent opponent = buildEngineer(catalog, new Random(2 * seed + 1));
+                    NegotiationGraph graph = buildGraph(agent, opponent, catalog, graphDepth);
+                    
+                    String description = catalogSize + " items, depth " + graphDepth + ", seed " + seed;
+                    compare(agent, graph, description + ", agent", mismatches);
+                    compare(opponent, graph, description + ", opponent", mismatches);
+                }
+            }
+        }
+        assertTrue(mismatches.size() + " argue actions differed in parallel: " + mismatches, mismatches.isEmpty());
+    }
+    
+    /** Generates the ArgueAction of an engineer on a graph sequentially then in parallel, and records any difference */
+    private static void compare(EngineerAgent engineer, NegotiationGraph graph, String description, ArrayList<String> mismatches) {
+        ParallelEvaluation.setEnabled(false);
+        engineer.getArgumentMemo().clear();
+        Action sequential = ArgueAction.generateActionWithGraph(engineer, graph, Optional.empty());
+        
+        ParallelEvaluation.setEnabled(true);
+        ParallelEvaluation.setMinCandidates(2);
+        engineer.getArgumentMemo().clear();
+        Action parallel = ArgueAction.generateActionWithGraph(engineer, graph, Optional.empty());
+        
+        if (sequential.getClass() != parallel.getClass() || sequential.getPolicyValue() != parallel.getPolicyValue()
+                || !sequential.getContent().equals(parallel.getContent())) {
+            mismatches.add(description + ": sequential \"" + sequential.getContent() + "\" (" + sequential.getPolicyValue()
+                    + "), parallel \"" + parallel.getContent() + "\" (" + parallel.getPolicyValue() + ")");
+        }
+    }
+    
+    private static ArrayList<Item> buildCatalog(int size) {
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            items.append(i > 0 ? "|" : "").append(WorkloadGenerator.getItemName(i)).append(";Synthetic item ").append(i);
+        }
+        return Item.parseItems(items.toString());
+    }
+    
+    private static EngineerAgent buildEngineer(ArrayList<Item> catalog, Random random) {
+        EngineerAgent engineer = new EngineerAgent();
+        engineer.getPreferences().randomize(catalog, random);
+        engineer.setItems(catalog);
+        return engineer;
+    }
+    
+    /** Builds the graph of an agent where every other item was proposed, alternately by each engineer, and each proposal branch
+     * was argued up to a given depth: opened by an engineer supporting the item, then attacked by each engineer in turn */
+    private static NegotiationGraph buildGraph(EngineerAgent agent, EngineerAgent opponent, ArrayList<Item> catalog, int graphDepth) {
+        NegotiationGraph graph = agent.getGraph();
+        for (int i = 0; i < catalog.size(); i += 2) {
+            Item item = catalog.get(i);
+            if (i % 4 == 0) {
+                graph.receiveProposal(item);
+            } else {
+                graph.initiateProposal(item);
+            }
+            
+            EngineerAgent arguer = opponent.canAccept(item) ? opponent : agent;
+            for (int depth = 0; depth < graphDepth; depth++) {
+                Optional<Argument> argument = graph.generateBestArgumentForItem(item, arguer);
+                if (!argument.isPresent() || !graph.canAddArgument(argument.get())) {
+                    break;
+                }
+                graph.addArgument(argument.get());
+                arguer = arguer == agent ? opponent : agent;
+            }
+        }
+        return graph;
+    }
+}